@@ -0,0 +1,68 @@
+package de.ecr.ai.benchmark;
+
+import de.ecr.ai.model.neuron.activation.IActivationFunction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the activation of a whole layer by the float kernels of sigmoid and tangent hyperbolic against the
+ * double precision {@link Math#exp(double)} and {@link Math#tanh(double)} per value.
+ * <p>
+ * Run with {@code mvn -P benchmark verify -Djmh.args="ActivationBenchmark"}.
+ *
+ * @author Bjoern Frohberg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActivationBenchmark {
+
+  @Param({"256", "4096"})
+  public int neurons;
+
+  private float[] sums;
+  private float[] outputs;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(42);
+    sums = new float[neurons];
+    outputs = new float[neurons];
+    for (int i = 0; i < neurons; i++) {
+      sums[i] = (float) random.nextGaussian() * 4;
+    }
+  }
+
+  @Benchmark
+  public float[] sigmoid() {
+    IActivationFunction.SIGMOID.activate(sums, outputs, 0, neurons);
+    return outputs;
+  }
+
+  @Benchmark
+  public float[] sigmoidDouble() {
+    for (int i = 0; i < neurons; i++) {
+      outputs[i] = (float) (1d / (1d + Math.exp(-sums[i])));
+    }
+    return outputs;
+  }
+
+  @Benchmark
+  public float[] tangentHyperbolic() {
+    IActivationFunction.TANGENT_HYPERBOLIC.activate(sums, outputs, 0, neurons);
+    return outputs;
+  }
+
+  @Benchmark
+  public float[] tangentHyperbolicDouble() {
+    for (int i = 0; i < neurons; i++) {
+      outputs[i] = (float) Math.tanh(sums[i]);
+    }
+    return outputs;
+  }
+}
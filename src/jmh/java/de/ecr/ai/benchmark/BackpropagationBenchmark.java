@@ -0,0 +1,66 @@
+package de.ecr.ai.benchmark;
+
+import de.ecr.ai.model.NeuralNetwork;
+import de.ecr.ai.model.test.TestUnit;
+import de.ecr.ai.model.test.TrainingSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one training step (forward, backward and applying the deltas) for a growing hidden layer width.
+ * Each pass is a product of the weight matrix, so doubling the width should take about 4 times longer (O(n^2)),
+ * not 8 times (O(n^3)).
+ * <p>
+ * Run with {@code mvn -P benchmark verify -Djmh.args="BackpropagationBenchmark"}.
+ *
+ * @author Bjoern Frohberg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackpropagationBenchmark {
+
+  private static final int HIDDEN_LAYERS = 2;
+  private static final int OUTPUTS = 10;
+  private static final int UNITS = 16;
+
+  @Param({"64", "128", "256", "512", "1024"})
+  public int width;
+
+  private NeuralNetwork network;
+  private TrainingSession session;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(42);
+    network = new NeuralNetwork();
+    network.build(width, HIDDEN_LAYERS, width, OUTPUTS, false);
+    session = new TrainingSession();
+    session.batchSize = 1;
+    for (int u = 0; u < UNITS; u++) {
+      TestUnit unit = new TestUnit();
+      unit.inputValues = new float[width];
+      unit.desiredValues = new float[OUTPUTS];
+      for (int i = 0; i < width; i++) {
+        unit.inputValues[i] = random.nextFloat();
+      }
+      unit.desiredValues[random.nextInt(OUTPUTS)] = 1;
+      session.tests.add(unit);
+    }
+  }
+
+  /**
+   * A generation of {@value #UNITS} batches of one unit, the score is the time of one step
+   */
+  @Benchmark
+  @OperationsPerInvocation(UNITS)
+  public NeuralNetwork learn() {
+    network.train(session, 0.15f);
+    return network;
+  }
+}
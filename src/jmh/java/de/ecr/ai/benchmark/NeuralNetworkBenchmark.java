@@ -0,0 +1,155 @@
+package de.ecr.ai.benchmark;
+
+import de.ecr.ai.model.MemoryData;
+import de.ecr.ai.model.NeuralNetwork;
+import de.ecr.ai.model.ParameterStorage;
+import de.ecr.ai.model.test.TestUnit;
+import de.ecr.ai.model.test.TrainingSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hot paths of a {@link NeuralNetwork}: forward pass, training and persistence.
+ * <p>
+ * Run with {@code mvn -P benchmark verify}, the results are written as json to target/jmh-result.json.
+ *
+ * @author Bjoern Frohberg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeuralNetworkBenchmark {
+
+  private static final int HIDDEN_LAYERS = 2;
+  private static final int UNITS = 64;
+  private static final int ROWS = 64;
+
+  @Param({"64", "512"})
+  public int inputs;
+
+  @Param({"64", "256"})
+  public int hiddenNeurons;
+
+  @Param({"1", "10"})
+  public int outputs;
+
+  @Param({"HEAP", "OFF_HEAP"})
+  public ParameterStorage storage;
+
+  private NeuralNetwork network;
+  private NeuralNetwork restored;
+  private TrainingSession session;
+  private float[] inputValues;
+  private float[] outputValues;
+  private float[] batchInputValues;
+  private float[] batchOutputValues;
+  private String json;
+  private byte[] jsonBytes;
+  private ByteArrayOutputStream jsonStream;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(42);
+    network = new NeuralNetwork();
+    network.build(inputs, HIDDEN_LAYERS, hiddenNeurons, outputs, false, storage);
+    restored = new NeuralNetwork();
+    restored.build(inputs, HIDDEN_LAYERS, hiddenNeurons, outputs, false, storage);
+
+    session = new TrainingSession();
+    for (int u = 0; u < UNITS; u++) {
+      TestUnit unit = new TestUnit();
+      unit.inputValues = randomValues(random, inputs);
+      unit.desiredValues = randomValues(random, outputs);
+      session.tests.add(unit);
+    }
+    inputValues = randomValues(random, inputs);
+    outputValues = new float[outputs];
+    batchInputValues = randomValues(random, ROWS * inputs);
+    batchOutputValues = new float[ROWS * outputs];
+
+    json = network.saveToJson();
+    jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+    jsonStream = new ByteArrayOutputStream(jsonBytes.length);
+  }
+
+  private static float[] randomValues(Random random, int count) {
+    float[] values = new float[count];
+    for (int i = 0; i < count; i++) {
+      values[i] = random.nextFloat();
+    }
+    return values;
+  }
+
+  @Benchmark
+  public float[] test() {
+    return network.test(inputValues, outputValues);
+  }
+
+  @Benchmark
+  public float[] testAllocating() {
+    return network.test(inputValues);
+  }
+
+  /**
+   * Tests {@value #ROWS} rows at once, compare with {@value #ROWS} times {@link #test()}
+   */
+  @Benchmark
+  public float[] testBatch() {
+    return network.testBatch(batchInputValues, ROWS, batchOutputValues);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public NeuralNetwork train() {
+    network.train(session, 0.15f);
+    return network;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int evolute() {
+    return network.evolute(1, session, 0.15f);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public MemoryData readMemory() {
+    return network.readMemory();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public String saveToJson() {
+    return network.saveToJson();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int saveToJsonStream() {
+    jsonStream.reset();
+    network.saveToJson(jsonStream);
+    return jsonStream.size();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public NeuralNetwork loadMemoryDataFromJson() {
+    restored.loadMemoryDataFromJson(json);
+    return restored;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public NeuralNetwork loadMemoryDataFromJsonStream() {
+    restored.loadMemoryDataFromJson(new ByteArrayInputStream(jsonBytes));
+    return restored;
+  }
+}
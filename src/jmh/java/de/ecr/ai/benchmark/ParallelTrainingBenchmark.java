@@ -0,0 +1,68 @@
+package de.ecr.ai.benchmark;
+
+import de.ecr.ai.model.NeuralNetwork;
+import de.ecr.ai.model.test.TestUnit;
+import de.ecr.ai.model.test.TrainingSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the training throughput in units per second for a growing number of threads.
+ * <p>
+ * Run with {@code mvn -P benchmark verify -Djmh.args="ParallelTrainingBenchmark"}.
+ *
+ * @author Bjoern Frohberg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelTrainingBenchmark {
+
+  private static final int INPUTS = 256;
+  private static final int HIDDEN_LAYERS = 2;
+  private static final int HIDDEN_NEURONS = 256;
+  private static final int OUTPUTS = 10;
+  private static final int UNITS = 4096;
+  private static final int BATCH_SIZE = 256;
+
+  @Param({"1", "2", "4", "8"})
+  public int threads;
+
+  private NeuralNetwork network;
+  private TrainingSession session;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(42);
+    network = new NeuralNetwork();
+    network.build(INPUTS, HIDDEN_LAYERS, HIDDEN_NEURONS, OUTPUTS, false);
+    session = new TrainingSession();
+    session.batchSize = BATCH_SIZE;
+    session.threads = threads;
+    for (int u = 0; u < UNITS; u++) {
+      TestUnit unit = new TestUnit();
+      unit.inputValues = new float[INPUTS];
+      unit.desiredValues = new float[OUTPUTS];
+      for (int i = 0; i < INPUTS; i++) {
+        unit.inputValues[i] = random.nextFloat();
+      }
+      unit.desiredValues[random.nextInt(OUTPUTS)] = 1;
+      session.tests.add(unit);
+    }
+  }
+
+  /**
+   * One generation of {@value #UNITS} units, the score is in units per second
+   */
+  @Benchmark
+  @OperationsPerInvocation(UNITS)
+  public NeuralNetwork train() {
+    network.train(session, 0.15f);
+    return network;
+  }
+}
@@ -0,0 +1,376 @@
+package de.ecr.ai.model;
+
+import de.ecr.ai.model.neuron.Neuron;
+import de.ecr.ai.model.neuron.activation.IActivationFunction;
+import de.ecr.ai.model.neuron.activation.SigmoidActivation;
+import de.ecr.ai.model.neuron.activation.SoftMaxActivation;
+import de.ecr.ai.model.neuron.activation.TangentHypActivation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.*;
+import static java.text.MessageFormat.format;
+
+/**
+ * Stores the memory of a {@link NeuralNetwork} as binary file. All numbers are little-endian.
+ * <pre>
+ * int    magic "ECNN"
+ * int    version
+ * int    number of layers
+ * int[2] per layer: number of neurons, activation (0 sigmoid, 1 tangent hyperbolic, 2 softmax)
+ * long   generations
+ * float  learning gradient
+ * int    name length in bytes (-1 for no name), followed by the UTF-8 name and padding to 4 bytes
+ * float  per layer after the input layer: weights (row-major, one row per neuron), then biases
+ * int    optimizer states per weight and bias, 0 (zero) for a model without training state (since version 2)
+ * long   optimizer steps
+ * long   shuffle epoch of the training units, -1 for none
+ * float  per layer after the input layer and per optimizer state: states of the weights, then of the biases
+ * float  loss of the last generation of evolute (NaN for none, since version 3)
+ * float  best loss of evolute
+ * int    generations of evolute without improvement
+ * int    size of the state of the learning rate schedule, followed by the floats of the state
+ * </pre>
+ * Files of version 1 end after the biases, files of version 2 after the optimizer states.
+ * The weight blocks are written and read through memory mappings of the file, so they are copied at once
+ * between the file and the layers. A network stored {@link ParameterStorage#OFF_HEAP} keeps the private
+ * mappings as its storage, nothing is copied.
+ *
+ * @author Bjoern Frohberg
+ */
+final class BinaryModelFile {
+
+  static final int MAGIC = 0x4e4e4345; // "ECNN" in little-endian
+  static final int VERSION = 3;
+
+  private static final int TRAINING_STATE_SIZE = 4 + 8 + 8;
+  private static final int EVOLUTION_STATE_SIZE = 4 + 4 + 4 + 4;
+
+  static final int SIGMOID = 0;
+  static final int TANGENT_HYPERBOLIC = 1;
+  static final int SOFTMAX = 2;
+
+  private BinaryModelFile() {
+  }
+
+  /**
+   * Writes topology, weights and biases of a network into a file
+   */
+  static void write(NeuralNetwork network, Path file) throws IOException {
+    List<Layer> layers = network.getLayers();
+    int[] neurons = new int[layers.size()];
+    int[] activations = new int[layers.size()];
+    for (int l = 0; l < layers.size(); l++) {
+      neurons[l] = layers.get(l).countNeurons();
+      activations[l] = activationId(layers.get(l));
+    }
+
+    try (FileChannel channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+      long offset = writeHeader(channel, neurons, activations, network.getGenerations(),
+        network.getLearningGradient(), network.getName());
+      for (int l = 1; l < layers.size(); l++) {
+        Layer layer = layers.get(l);
+        long bytes = (long) layer.countParameters() * Float.BYTES;
+        layer.writeParameters(channel.map(FileChannel.MapMode.READ_WRITE, offset, bytes)
+          .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+        offset += bytes;
+      }
+      ByteBuffer trainingState = ByteBuffer.allocate(TRAINING_STATE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      trainingState.putInt(0).putLong(0).putLong(-1);
+      // cast for Java 8, which has no covariant return types on buffers
+      ((Buffer) trainingState).flip();
+      offset = writeFully(channel, trainingState, offset);
+      writeEvolutionState(channel, new EvolutionState(), offset);
+    }
+  }
+
+  /**
+   * Writes a checkpoint of a network in training: topology, weights, biases and the training state
+   */
+  static void write(Checkpoint checkpoint, Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, WRITE)) {
+      long offset = writeHeader(channel, checkpoint.neurons, checkpoint.activations, checkpoint.generations,
+        checkpoint.learningGradient, checkpoint.name);
+      for (float[] parameters : checkpoint.parameters) {
+        offset = writeFloats(channel, parameters, offset);
+      }
+      ByteBuffer trainingState = ByteBuffer.allocate(TRAINING_STATE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      trainingState.putInt(checkpoint.states).putLong(checkpoint.optimizerSteps).putLong(checkpoint.epoch);
+      // cast for Java 8, which has no covariant return types on buffers
+      ((Buffer) trainingState).flip();
+      offset = writeFully(channel, trainingState, offset);
+      for (float[] states : checkpoint.optimizerStates) {
+        offset = writeFloats(channel, states, offset);
+      }
+      writeEvolutionState(channel, checkpoint.evolution, offset);
+      // the checkpoint is complete on disk, before it replaces the last one
+      channel.force(false);
+    }
+  }
+
+  /**
+   * Writes the header and returns its size
+   */
+  private static long writeHeader(FileChannel channel, int[] neurons, int[] activations, long generations,
+                                  float learningGradient, String networkName) throws IOException {
+    byte[] name = networkName != null ? networkName.getBytes(StandardCharsets.UTF_8) : null;
+    ByteBuffer header = ByteBuffer.allocate(headerSize(neurons.length, name)).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC).putInt(VERSION).putInt(neurons.length);
+    for (int l = 0; l < neurons.length; l++) {
+      header.putInt(neurons[l]).putInt(activations[l]);
+    }
+    header.putLong(generations).putFloat(learningGradient);
+    header.putInt(name != null ? name.length : -1);
+    if (name != null) {
+      header.put(name);
+    }
+    // cast for Java 8, which has no covariant return types on buffers
+    ((Buffer) header).position(header.capacity()).flip();
+    return writeFully(channel, header, 0);
+  }
+
+  private static long writeEvolutionState(FileChannel channel, EvolutionState evolution, long offset)
+    throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(EVOLUTION_STATE_SIZE + evolution.scheduleState.length * Float.BYTES)
+      .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putFloat(evolution.loss).putFloat(evolution.bestLoss).putInt(evolution.generationsWithoutImprovement);
+    buffer.putInt(evolution.scheduleState.length);
+    for (float value : evolution.scheduleState) {
+      buffer.putFloat(value);
+    }
+    // cast for Java 8, which has no covariant return types on buffers
+    ((Buffer) buffer).flip();
+    return writeFully(channel, buffer, offset);
+  }
+
+  private static long writeFloats(FileChannel channel, float[] values, long offset) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(Math.min(values.length, 1 << 14) * Float.BYTES)
+      .order(ByteOrder.LITTLE_ENDIAN);
+    for (int from = 0; from < values.length; from += buffer.capacity() / Float.BYTES) {
+      int count = Math.min(values.length - from, buffer.capacity() / Float.BYTES);
+      // cast for Java 8, which has no covariant return types on buffers
+      ((Buffer) buffer).clear();
+      buffer.asFloatBuffer().put(values, from, count);
+      ((Buffer) buffer).limit(count * Float.BYTES);
+      offset = writeFully(channel, buffer, offset);
+    }
+    return offset;
+  }
+
+  /**
+   * Writes the remaining bytes at the offset and returns the offset behind them
+   */
+  private static long writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      offset += channel.write(buffer, offset);
+    }
+    return offset;
+  }
+
+  /**
+   * Rebuilds a network from a file, its weights and biases are copied out of the mapped file or the layers use
+   * the mapping directly (see {@link ParameterStorage#OFF_HEAP}).
+   * A network of the same shape is not rebuilt, only its weights and biases are replaced.
+   */
+  static void read(NeuralNetwork network, Path file) throws IOException {
+    read(network, file, false);
+  }
+
+  /**
+   * Rebuilds a network like {@link #read(NeuralNetwork, Path)} and restores its training state, if {@code true}:
+   * the optimizer states and the state of evolute. The network needs to use an optimizer with the same number of
+   * states as the one of the file.
+   *
+   * @return the shuffle epoch of the training units, -1 for none
+   */
+  static long read(NeuralNetwork network, Path file, boolean training) throws IOException {
+    // a private mapping needs a writable channel, even though nothing is written to the file
+    boolean mapped = network.getStorage() == ParameterStorage.OFF_HEAP;
+    try (FileChannel channel = mapped ? FileChannel.open(file, READ, WRITE) : FileChannel.open(file, READ)) {
+      ByteBuffer buffer = readFully(channel, 12);
+      if (buffer.getInt() != MAGIC) {
+        throw new IllegalArgumentException(format("{0} is not a neural network file!", file));
+      }
+      int version = buffer.getInt();
+      if (version < 1 || version > VERSION) {
+        throw new IllegalArgumentException(format("Version {0} of {1} is not supported!", version, file));
+      }
+      int layerCount = buffer.getInt();
+      if (layerCount < 2) {
+        throw new IllegalArgumentException(format("{0} needs at least input and output layer!", file));
+      }
+
+      buffer = readFully(channel, layerCount * 8 + 16);
+      int[] neurons = new int[layerCount];
+      int[] activations = new int[layerCount];
+      for (int l = 0; l < layerCount; l++) {
+        neurons[l] = buffer.getInt();
+        activations[l] = buffer.getInt();
+      }
+      long generations = buffer.getLong();
+      float learningGradient = buffer.getFloat();
+      int nameLength = buffer.getInt();
+      String name = null;
+      if (nameLength >= 0) {
+        ByteBuffer nameBuffer = readFully(channel, nameLength);
+        name = new String(nameBuffer.array(), 0, nameLength, StandardCharsets.UTF_8);
+      }
+
+      int hiddenLayers = layerCount - 2;
+      int hiddenNeurons = hiddenLayers > 0 ? neurons[1] : 0;
+      for (int l = 1; l <= hiddenLayers; l++) {
+        if (neurons[l] != hiddenNeurons) {
+          throw new IllegalArgumentException(format("Hidden layers of {0} differ in size!", file));
+        }
+      }
+      if (mapped) {
+        network.reshapeForMapping(neurons[0], hiddenLayers, hiddenNeurons, neurons[layerCount - 1],
+          activations[layerCount - 1] == SOFTMAX);
+      } else {
+        network.reshape(neurons[0], hiddenLayers, hiddenNeurons, neurons[layerCount - 1],
+          activations[layerCount - 1] == SOFTMAX);
+      }
+      network.setName(name);
+      network.setGenerations(generations);
+      network.setLearningGradient(learningGradient);
+
+      List<Layer> layers = network.getLayers();
+      long offset = headerSize(layerCount, name != null ? name.getBytes(StandardCharsets.UTF_8) : null);
+      for (int l = 1; l < layerCount; l++) {
+        Layer layer = layers.get(l);
+        if (activations[l] != SOFTMAX) {
+          layer.setActivation(activation(activations[l]));
+        }
+        long bytes = (long) (neurons[l] * neurons[l - 1] + neurons[l]) * Float.BYTES;
+        if (offset + bytes > channel.size()) {
+          throw new EOFException(format("{0} ends before weights of layer {1}!", file, l));
+        }
+        if (mapped) {
+          // a private mapping stays valid after closing the channel and is never written back to the file
+          layer.mapParameters(channel.map(FileChannel.MapMode.PRIVATE, offset, bytes)
+            .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+        } else {
+          layer.readParameters(channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes)
+            .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+        }
+        offset += bytes;
+      }
+      if (!training) {
+        return -1;
+      }
+      if (version < 2) {
+        throw new IllegalArgumentException(format("{0} has no training state!", file));
+      }
+
+      ByteBuffer trainingState = readFully(channel, offset, TRAINING_STATE_SIZE, file);
+      int states = trainingState.getInt();
+      long optimizerSteps = trainingState.getLong();
+      long epoch = trainingState.getLong();
+      offset += TRAINING_STATE_SIZE;
+      int required = network.getOptimizer().countStates();
+      if (states != required) {
+        throw new IllegalArgumentException(format("{0} has {1} optimizer states per weight, but {2} needs {3}!",
+          file, states, network.getOptimizer().getClass().getSimpleName(), required));
+      }
+      for (int l = 1; l < layerCount; l++) {
+        long bytes = (long) states * (neurons[l] * neurons[l - 1] + neurons[l]) * Float.BYTES;
+        if (offset + bytes > channel.size()) {
+          throw new EOFException(format("{0} ends before optimizer states of layer {1}!", file, l));
+        }
+        layers.get(l).readStates(channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes)
+          .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer(), states);
+        offset += bytes;
+      }
+      network.setOptimizerSteps(optimizerSteps);
+      readEvolutionState(channel, offset, version, network.getEvolution(), file);
+      return epoch;
+    }
+  }
+
+  private static void readEvolutionState(FileChannel channel, long offset, int version, EvolutionState evolution,
+                                         Path file) throws IOException {
+    evolution.reset();
+    if (version < 3) {
+      return;
+    }
+    ByteBuffer buffer = readFully(channel, offset, EVOLUTION_STATE_SIZE, file);
+    evolution.loss = buffer.getFloat();
+    evolution.bestLoss = buffer.getFloat();
+    evolution.generationsWithoutImprovement = buffer.getInt();
+    int size = buffer.getInt();
+    if (size < 0 || offset + EVOLUTION_STATE_SIZE + (long) size * Float.BYTES > channel.size()) {
+      throw new EOFException(format("{0} ends before the state of its learning rate schedule!", file));
+    }
+    evolution.scheduleState = new float[size];
+    readFully(channel, offset + EVOLUTION_STATE_SIZE, size * Float.BYTES, file).asFloatBuffer()
+      .get(evolution.scheduleState);
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long offset, int bytes, Path file) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException(format("{0} ends before its training state!", file));
+      }
+    }
+    // cast for Java 8, which has no covariant return types on buffers
+    ((Buffer) buffer).flip();
+    return buffer;
+  }
+
+  private static int headerSize(int layerCount, byte[] name) {
+    int size = 12 + layerCount * 8 + 16 + (name != null ? name.length : 0);
+    return (size + 3) & ~3;
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, int bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Unexpected end of neural network file!");
+      }
+    }
+    // cast for Java 8, which has no covariant return types on buffers
+    ((Buffer) buffer).flip();
+    return buffer;
+  }
+
+  static int activationId(Layer layer) {
+    List<Neuron> neurons = Layer.getNeurons(layer);
+    IActivationFunction activation = neurons.get(0).getActivation();
+    for (Neuron neuron : neurons) {
+      if (neuron.getActivation().getClass() != activation.getClass()) {
+        throw new IllegalStateException("Cannot store a layer with different activation functions!");
+      }
+    }
+    if (activation instanceof SigmoidActivation) {
+      return SIGMOID;
+    }
+    if (activation instanceof TangentHypActivation) {
+      return TANGENT_HYPERBOLIC;
+    }
+    if (activation instanceof SoftMaxActivation) {
+      return SOFTMAX;
+    }
+    throw new IllegalStateException("Cannot store activation function " + activation.getClass().getCanonicalName());
+  }
+
+  static IActivationFunction activation(int id) {
+    switch (id) {
+      case SIGMOID:
+        return IActivationFunction.SIGMOID;
+      case TANGENT_HYPERBOLIC:
+        return IActivationFunction.TANGENT_HYPERBOLIC;
+      default:
+        throw new IllegalArgumentException("Unknown activation function: " + id);
+    }
+  }
+}
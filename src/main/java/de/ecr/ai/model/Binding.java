@@ -4,62 +4,63 @@ import de.ecr.ai.model.annotation.LearningData;
 import de.ecr.ai.model.neuron.IBindableSourceNeuron;
 import de.ecr.ai.model.neuron.Neuron;
 
-import java.security.SecureRandom;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 import static java.text.MessageFormat.format;
 
 /**
- * Binding to a parent neuron (neuron in previous layer [hidden layer or input layer]
+ * Binding to a parent neuron (neuron in previous layer [hidden layer or input layer].<br/>
+ * The weight is not held by the binding, it is a view on one cell of the weight matrix of the child layer.
  *
  * @author Bjoern Frohberg
  */
 public final class Binding {
 
-    private static final Random RANDOM = new SecureRandom();
-
     private final IBindableSourceNeuron parentNeuron;
-    private final String childName;
-    private float weight;
+    private final Neuron child;
+    private final Layer layer;
+    private final int weightIndex;
 
     /**
-     * Creates a new instance an force weight to be a random floating number between -1 and 1.
+     * Creates a new instance. The weight is set by the {@link IWeightInitializer} of the network.
      */
     public Binding(Neuron child, IBindableSourceNeuron parentNeuron) {
-        this.parentNeuron = parentNeuron;
-        this.childName = child.getName();
-        randomizeWeight();
         if (parentNeuron == null) {
           throw new IllegalArgumentException("Your neuron may not be null! parentNeuron");
         }
+        this.parentNeuron = parentNeuron;
+        this.child = child;
+        this.layer = child.getLayer();
+        this.weightIndex = child.getIndex() * layer.countInputs() + parentNeuron.getIndex();
     }
 
     /**
      * For visualization
      */
     public String getName() {
-        return format("{0}:-( {1} )->:{2}", parentNeuron.getName(), weight, childName);
+        return format("{0}:-( {1} )->:{2}", parentNeuron.getName(), getWeight(), child.getName());
     }
 
     /**
-     * Initial weight between -1 and 1
+     * Initial weight between -1 and 1, drawn from the given random generator. A seeded generator always draws the
+     * same weight, see {@link NeuralNetwork#setSeed(long)}.
      */
-    public void randomizeWeight() {
-        weight = RANDOM.nextFloat() * 2 - 1;
+    public void randomizeWeight(SplittableRandom random) {
+        setWeight((float) (random.nextDouble() * 2 - 1));
     }
 
     /**
      * Use it during loading a neural network
      */
     public void setWeight(float weight) {
-        this.weight = weight;
+        layer.putWeight(weightIndex, weight);
     }
 
     /**
      * Returns a calculated balanced value depending on the parent neuron output value
      */
     public float calculateOutput() {
-        return weight * parentNeuron.getOutputValue();
+        return getWeight() * parentNeuron.getOutputValue();
     }
 
     /**
@@ -70,7 +71,7 @@ public final class Binding {
      */
     @LearningData
     public float getWeight() {
-        return weight;
+        return layer.weightAt(weightIndex);
     }
 
     /**
@@ -84,7 +85,8 @@ public final class Binding {
    * Update weight for child neuron, based on it error
    */
   public void updateWeight(float learningGradient, Neuron childNeuron) {
-    weight += calculateWeightDelta(childNeuron, parentNeuron.getOutputValue(), learningGradient);
+    layer.putWeight(weightIndex, layer.weightAt(weightIndex)
+      + calculateWeightDelta(childNeuron, parentNeuron.getOutputValue(), learningGradient));
   }
 
   private static float calculateWeightDelta(Neuron childNeuron, float outputValue, float learningGradient) {
@@ -0,0 +1,72 @@
+package de.ecr.ai.model;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A copy of a {@link NeuralNetwork} in training, taken between two generations and written by
+ * {@link BinaryModelFile#write(Checkpoint, java.nio.file.Path)} afterwards. Capturing it again reuses its arrays.
+ *
+ * @author Bjoern Frohberg
+ */
+final class Checkpoint {
+
+  int[] neurons = new int[0];
+  int[] activations = new int[0];
+  long generations;
+  float learningGradient;
+  String name;
+  float[][] parameters = new float[0][];
+  int states;
+  long optimizerSteps;
+  long epoch;
+  float[][] optimizerStates = new float[0][];
+  final EvolutionState evolution = new EvolutionState();
+
+  /**
+   * Copies topology, weights, biases and training state of the network
+   *
+   * @param epoch     the shuffle epoch of the training units, -1 for none
+   * @param evolution the state of evolute after the last generation
+   */
+  void capture(NeuralNetwork network, long epoch, EvolutionState evolution) {
+    List<Layer> layers = network.getLayers();
+    if (neurons.length != layers.size()) {
+      neurons = new int[layers.size()];
+      activations = new int[layers.size()];
+      parameters = new float[layers.size() - 1][];
+      optimizerStates = new float[layers.size() - 1][];
+    }
+    generations = network.getGenerations();
+    learningGradient = network.getLearningGradient();
+    name = network.getName();
+    states = network.getOptimizer().countStates();
+    optimizerSteps = network.getOptimizerSteps();
+    this.epoch = epoch;
+    this.evolution.copy(evolution);
+
+    for (int l = 0; l < layers.size(); l++) {
+      Layer layer = layers.get(l);
+      neurons[l] = layer.countNeurons();
+      activations[l] = BinaryModelFile.activationId(layer);
+      if (l == 0) {
+        continue;
+      }
+      int count = layer.countParameters();
+      parameters[l - 1] = ensureSize(parameters[l - 1], count);
+      layer.writeParameters(FloatBuffer.wrap(parameters[l - 1]));
+      optimizerStates[l - 1] = ensureSize(optimizerStates[l - 1], states * count);
+      if (layer.countStates() == states) {
+        layer.writeStates(FloatBuffer.wrap(optimizerStates[l - 1]));
+      } else {
+        // no batch was learned by this optimizer yet
+        Arrays.fill(optimizerStates[l - 1], 0);
+      }
+    }
+  }
+
+  private static float[] ensureSize(float[] values, int size) {
+    return values != null && values.length == size ? values : new float[size];
+  }
+}
@@ -0,0 +1,127 @@
+package de.ecr.ai.model;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes checkpoints of a network in training on a background thread. There are two {@link Checkpoint}s: while
+ * one is written, the training captures the next one into the other. A checkpoint captured, while the one before is
+ * still written, replaces any other checkpoint waiting, so the training never waits for the disk.<br/>
+ * A checkpoint is written into a temporary file first and replaces the last one by an atomic move, so a crash
+ * leaves the last complete checkpoint.
+ *
+ * @author Bjoern Frohberg
+ */
+final class CheckpointWriter implements AutoCloseable {
+
+  private final Checkpoint[] checkpoints = {new Checkpoint(), new Checkpoint()};
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "training-checkpoint");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private Path file;
+  private int writing = -1;
+  private int waiting = -1;
+  private Throwable failure;
+
+  /**
+   * Captures a checkpoint of the network and writes it into the file in the background
+   *
+   * @param epoch     the shuffle epoch of the training units, -1 for none
+   * @param evolution the state of evolute after the last generation
+   */
+  void write(NeuralNetwork network, long epoch, EvolutionState evolution, Path file) {
+    int slot;
+    synchronized (this) {
+      throwFailure();
+      slot = writing == 0 ? 1 : 0;
+      if (waiting == slot) {
+        // replaced by the newer checkpoint
+        waiting = -1;
+      }
+    }
+    checkpoints[slot].capture(network, epoch, evolution);
+    synchronized (this) {
+      this.file = file;
+      if (writing < 0) {
+        writing = slot;
+        executor.execute(this::writeCheckpoints);
+      } else {
+        waiting = slot;
+      }
+    }
+  }
+
+  /**
+   * Waits until all captured checkpoints are written
+   */
+  void flush() {
+    synchronized (this) {
+      while (writing >= 0) {
+        try {
+          wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(ex);
+        }
+      }
+      throwFailure();
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      flush();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void writeCheckpoints() {
+    while (true) {
+      int slot;
+      Path file;
+      synchronized (this) {
+        slot = writing;
+        file = this.file;
+      }
+      try {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        BinaryModelFile.write(checkpoints[slot], temporary);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (Throwable ex) {
+        // any failure ends the writing below, so a flush never waits for it
+        synchronized (this) {
+          failure = ex;
+        }
+      }
+      synchronized (this) {
+        writing = waiting;
+        waiting = -1;
+        if (writing < 0) {
+          notifyAll();
+          return;
+        }
+      }
+    }
+  }
+
+  private void throwFailure() {
+    if (failure != null) {
+      Throwable ex = failure;
+      failure = null;
+      if (ex instanceof RuntimeException) {
+        throw (RuntimeException) ex;
+      }
+      if (ex instanceof Error) {
+        throw (Error) ex;
+      }
+      throw new RuntimeException(ex);
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package de.ecr.ai.model;
+
+import de.ecr.ai.model.neuron.InputNeuron;
+import de.ecr.ai.model.neuron.Neuron;
+import de.ecr.ai.model.neuron.activation.IActivationFunction;
+import de.ecr.ai.model.neuron.activation.SoftMaxActivation;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+
+/**
+ * An immutable, inference-only snapshot of a trained {@link NeuralNetwork}, created by
+ * {@link NeuralNetwork#compile()}.<br/>
+ * Weights and biases are copied once into read-only storage of the same kind as the network (see
+ * {@link ParameterStorage}), later training of the network does not change them.
+ * The values between the layers are kept in scratch arrays per thread, so any number of threads can test on one
+ * compiled network at the same time.
+ *
+ * @author Bjoern Frohberg
+ */
+public final class CompiledNetwork {
+
+  private final String name;
+  private final long generations;
+  private final int inputs;
+  private final CompiledLayer[] layers;
+  private final int width; // most neurons of a hidden layer
+  private final ThreadLocal<float[][]> scratch = new ThreadLocal<>();
+
+  CompiledNetwork(NeuralNetwork network) {
+    List<Layer> source = network.getLayers();
+    this.name = network.getName();
+    this.generations = network.getGenerations();
+    this.inputs = source.get(0).countNeurons();
+    this.layers = new CompiledLayer[source.size() - 1];
+    int width = 0;
+    for (int l = 1; l < source.size(); l++) {
+      layers[l - 1] = new CompiledLayer(source.get(l));
+      if (l < source.size() - 1) {
+        width = Math.max(width, source.get(l).countNeurons());
+      }
+    }
+    this.width = width;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the generations of the network at the time it was compiled
+   */
+  public long getGenerations() {
+    return generations;
+  }
+
+  public int countInputs() {
+    return inputs;
+  }
+
+  public int countOutputs() {
+    return layers[layers.length - 1].count;
+  }
+
+  /**
+   * Propagate input values (normalized between 0 and 1) and passes the predicted output values back as result.
+   */
+  public float[] test(float... inputValues) {
+    return test(inputValues, new float[countOutputs()]);
+  }
+
+  /**
+   * Propagate input values (normalized between 0 and 1) and writes the predicted output values into the given
+   * array. Reuse your arrays between calls and this method will not allocate anything on the same thread.
+   *
+   * @param outputValues requires the exact same size as number of output neurons!
+   * @return the given outputValues
+   */
+  public float[] test(float[] inputValues, float[] outputValues) {
+    if (inputValues == null || inputValues.length != inputs) {
+      throw new IllegalArgumentException("inputValues must be the same count");
+    }
+    if (outputValues == null || outputValues.length != countOutputs()) {
+      throw new IllegalArgumentException("outputValues must be the same count as output neurons");
+    }
+    return propagate(inputValues, outputValues, 1);
+  }
+
+  /**
+   * Propagates a batch of input rows and returns the output rows in one flat array.
+   * See {@link #testBatch(float[], int, float[])}.
+   */
+  public float[] testBatch(float[] inputValues, int rows) {
+    return testBatch(inputValues, rows, new float[rows * countOutputs()]);
+  }
+
+  /**
+   * Propagates a batch of input rows (normalized between 0 and 1) and writes the output rows into the given array.
+   * Rows are laid out one after another, like {@link NeuralNetwork#testBatch(float[], int, float[])}.
+   *
+   * @return the given outputValues
+   */
+  public float[] testBatch(float[] inputValues, int rows, float[] outputValues) {
+    if (rows < 0) {
+      throw new IllegalArgumentException("rows must be positive or 0 (zero)!");
+    }
+    if (inputValues == null || inputValues.length != rows * inputs) {
+      throw new IllegalArgumentException("inputValues must be the same count as rows x input neurons");
+    }
+    if (outputValues == null || outputValues.length != rows * countOutputs()) {
+      throw new IllegalArgumentException("outputValues must be the same count as rows x output neurons");
+    }
+    return propagate(inputValues, outputValues, rows);
+  }
+
+  private float[] propagate(float[] inputValues, float[] outputValues, int rows) {
+    for (float value : inputValues) {
+      InputNeuron.requireNormalized(value);
+    }
+
+    float[][] buffers = scratch(rows);
+    float[] input = inputValues;
+    for (int l = 0; l < layers.length - 1; l++) {
+      float[] output = buffers[l & 1];
+      layers[l].propagate(input, output, rows);
+      input = output;
+    }
+    layers[layers.length - 1].propagate(input, outputValues, rows);
+    return outputValues;
+  }
+
+  /**
+   * Returns the two scratch arrays of the current thread, large enough for the values of rows
+   */
+  private float[][] scratch(int rows) {
+    float[][] buffers = scratch.get();
+    int size = rows * width;
+    if (buffers == null || buffers[0].length < size) {
+      buffers = new float[][]{new float[size], new float[size]};
+      scratch.set(buffers);
+    }
+    return buffers;
+  }
+
+  /**
+   * Read-only weights, biases and activation of one layer
+   */
+  private static final class CompiledLayer {
+
+    private final FloatBuffer weightBuffer;
+    private final FloatBuffer biasBuffer;
+    private final float[] weights; // null, if stored off-heap
+    private final float[] biases;
+    private final int inputCount;
+    private final int count;
+    private final boolean softmax;
+    private final IActivationFunction activation; // null for softmax or different activations
+    private final IActivationFunction[] activations;
+
+    CompiledLayer(Layer layer) {
+      this.weightBuffer = layer.copyWeights();
+      this.biasBuffer = layer.copyBiases();
+      this.weights = weightBuffer.hasArray() ? weightBuffer.array() : null;
+      this.biases = biasBuffer.hasArray() ? biasBuffer.array() : null;
+      this.inputCount = layer.countInputs();
+      this.count = layer.countNeurons();
+
+      IActivationFunction shared = layer.getSharedActivation();
+      this.softmax = shared instanceof SoftMaxActivation;
+      this.activation = softmax ? null : shared;
+      if (shared == null) {
+        List<Neuron> neurons = Layer.getNeurons(layer);
+        this.activations = new IActivationFunction[neurons.size()];
+        for (int n = 0; n < activations.length; n++) {
+          activations[n] = neurons.get(n).getActivation();
+          if (activations[n] instanceof SoftMaxActivation) {
+            throw new IllegalStateException("Cannot compile a layer with softmax on single neurons!");
+          }
+        }
+      } else {
+        this.activations = null;
+      }
+    }
+
+    void propagate(float[] input, float[] output, int rows) {
+      if (weights != null) {
+        Layer.multiply(weights, biases, inputCount, input, output, rows);
+      } else {
+        Layer.multiply(weightBuffer, biasBuffer, inputCount, input, output, rows);
+      }
+      for (int r = 0; r < rows; r++) {
+        int out = r * count;
+        if (softmax) {
+          SoftMaxActivation.softmax(output, output, out, out + count);
+        } else if (activation != null) {
+          activation.activate(output, output, out, out + count);
+        } else {
+          for (int n = 0; n < count; n++) {
+            output[out + n] = activations[n].activate(output[out + n]);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package de.ecr.ai.model;
+
+import de.ecr.ai.model.test.ILearningRateSchedule;
+
+/**
+ * The state of {@link NeuralNetwork#evolute(int, de.ecr.ai.model.test.TrainingSession, float)} between two
+ * generations, which is stored in a checkpoint, so a resumed training continues the run of the checkpoint.
+ *
+ * @author Bjoern Frohberg
+ */
+final class EvolutionState {
+
+  /**
+   * The loss of the last generation, {@link Float#NaN} before the first one
+   */
+  float loss = Float.NaN;
+  float bestLoss = Float.POSITIVE_INFINITY;
+  int generationsWithoutImprovement;
+
+  /**
+   * See {@link ILearningRateSchedule#getState()}
+   */
+  float[] scheduleState = new float[0];
+
+  void reset() {
+    loss = Float.NaN;
+    bestLoss = Float.POSITIVE_INFINITY;
+    generationsWithoutImprovement = 0;
+    scheduleState = new float[0];
+  }
+
+  void copy(EvolutionState other) {
+    loss = other.loss;
+    bestLoss = other.bestLoss;
+    generationsWithoutImprovement = other.generationsWithoutImprovement;
+    scheduleState = other.scheduleState;
+  }
+}
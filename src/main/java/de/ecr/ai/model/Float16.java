@@ -0,0 +1,80 @@
+package de.ecr.ai.model;
+
+/**
+ * Converts between floats and half precision floats (IEEE 754 binary16), which are kept in shorts
+ *
+ * @author Bjoern Frohberg
+ */
+final class Float16 {
+
+  /**
+   * Float of each half, so a half is converted by one lookup
+   */
+  private static final float[] FLOATS = new float[1 << 16];
+
+  static {
+    for (int h = 0; h < FLOATS.length; h++) {
+      FLOATS[h] = convert(h);
+    }
+  }
+
+  private Float16() {
+  }
+
+  static float toFloat(short half) {
+    return FLOATS[half & 0xffff];
+  }
+
+  /**
+   * Returns the nearest half of a float, ties to even
+   */
+  static short fromFloat(float value) {
+    int bits = Float.floatToRawIntBits(value);
+    int sign = (bits >>> 16) & 0x8000;
+    int exponent = (bits >>> 23) & 0xff;
+    int mantissa = bits & 0x7fffff;
+    if (exponent == 0xff) {
+      // infinity or not a number
+      return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+    }
+    int halfExponent = exponent - 127 + 15;
+    if (halfExponent >= 0x1f) {
+      return (short) (sign | 0x7c00);
+    }
+    int shift;
+    int half;
+    if (halfExponent <= 0) {
+      // subnormal half
+      if (halfExponent < -10) {
+        return (short) sign;
+      }
+      mantissa |= 0x800000;
+      shift = 14 - halfExponent;
+      half = mantissa >> shift;
+    } else {
+      shift = 13;
+      half = (halfExponent << 10) | (mantissa >> shift);
+    }
+    int rest = mantissa & ((1 << shift) - 1);
+    int middle = 1 << (shift - 1);
+    if (rest > middle || rest == middle && (half & 1) != 0) {
+      // a carry into the exponent is still the nearest half
+      half++;
+    }
+    return (short) (sign | half);
+  }
+
+  private static float convert(int half) {
+    int sign = (half & 0x8000) << 16;
+    int exponent = (half >>> 10) & 0x1f;
+    int mantissa = half & 0x3ff;
+    if (exponent == 0x1f) {
+      return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+    }
+    if (exponent == 0) {
+      float value = mantissa * 0x1p-24f;
+      return sign != 0 ? -value : value;
+    }
+    return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+  }
+}
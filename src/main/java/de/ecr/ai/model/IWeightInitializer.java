@@ -0,0 +1,62 @@
+package de.ecr.ai.model;
+
+import java.nio.FloatBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * Fills the weight matrix of a layer block by block, while the {@link NeuralNetwork} is built. Select it with
+ * {@link NeuralNetwork#setWeightInitializer(IWeightInitializer)}.<br/>
+ * Each block gets its own random generator split off the one of the network, so a network built with
+ * {@link NeuralNetwork#setSeed(long)} always gets the same weights.
+ *
+ * @author Bjoern Frohberg
+ */
+public interface IWeightInitializer {
+
+  /**
+   * Random weights between -1 and 1
+   */
+  IWeightInitializer UNIFORM = (weights, fanIn, fanOut, random) -> fill(weights, 1, random);
+
+  /**
+   * Random weights between -limit and limit with limit = sqrt(6 / (inputs + neurons)), made for sigmoid, tangent
+   * hyperbolic and softmax layers (Glorot and Bengio)
+   */
+  IWeightInitializer XAVIER = (weights, fanIn, fanOut, random) ->
+    fill(weights, (float) Math.sqrt(6.0 / (fanIn + fanOut)), random);
+
+  /**
+   * Random weights between -limit and limit with limit = sqrt(6 / inputs), the uniform variant of the
+   * initialization made for rectifying activations (He et al.)
+   */
+  IWeightInitializer HE = (weights, fanIn, fanOut, random) ->
+    fill(weights, (float) Math.sqrt(6.0 / fanIn), random);
+
+  /**
+   * Sets the weights of a block of rows of a layer. The buffer holds one row of fanIn weights for each neuron of the
+   * block, write it by absolute index. Blocks of the same layer may be initialized in parallel.
+   *
+   * @param weights rows of the weight matrix of the layer
+   * @param fanIn   the number of inputs of each neuron (neurons in the parent layer)
+   * @param fanOut  the number of neurons in the layer
+   * @param random  the random generator of this block
+   */
+  void initialize(FloatBuffer weights, int fanIn, int fanOut, SplittableRandom random);
+
+  /**
+   * Sets every weight to a random number between -limit and limit
+   */
+  static void fill(FloatBuffer weights, float limit, SplittableRandom random) {
+    float[] array = weights.hasArray() ? weights.array() : null;
+    int offset = array != null ? weights.arrayOffset() : 0;
+    int size = weights.capacity();
+    for (int i = 0; i < size; i++) {
+      float weight = (float) (random.nextDouble() * 2 - 1) * limit;
+      if (array != null) {
+        array[offset + i] = weight;
+      } else {
+        weights.put(i, weight);
+      }
+    }
+  }
+}
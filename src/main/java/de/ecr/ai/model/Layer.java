@@ -2,25 +2,75 @@ package de.ecr.ai.model;
 
 import de.ecr.ai.model.annotation.LearningData;
 import de.ecr.ai.model.neuron.*;
+import de.ecr.ai.model.neuron.activation.IActivationFunction;
+import de.ecr.ai.model.neuron.activation.SoftMaxActivation;
+import de.ecr.ai.model.optimizer.IOptimizer;
 
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
 import static java.text.MessageFormat.format;
-import static java.util.stream.Collectors.toList;
 
 /**
- * Defines a cluster to neurons to align a related solution path for the neural network
+ * Defines a cluster to neurons to align a related solution path for the neural network.<br/>
+ * The layer owns the numbers of its neurons in flat primitive arrays: one row-major weight matrix
+ * (one row per neuron, one column per parent layer neuron) plus one entry per neuron for bias, sum,
+ * output and error. {@link Neuron}s and {@link Binding}s are only views on this storage.<br/>
+ * Weights, biases and their deltas are kept in {@link FloatBuffer}s as selected by the {@link ParameterStorage} of
+ * the network: views on float arrays on the heap, or direct buffers outside of it. The calculations use the arrays,
+ * if there are any.
  *
  * @author Bjoern Frohberg
  */
 public final class Layer {
 
+  /**
+   * Smallest output taken into the logarithm of {@link #getCrossEntropy(float[])}
+   */
+  static final float MIN_PROBABILITY = 1e-7f;
+
+  /**
+   * Number of weights in a block of rows (at least one row), which is bound and initialized by one thread
+   */
+  private static final int BLOCK_WEIGHTS = 1 << 16;
+
+  /**
+   * Number of parameters copied at once onto the heap, when an optimizer updates parameters stored off-heap
+   */
+  private static final int UPDATE_CHUNK = 1024;
+
   private final String name;
     private final List<Neuron> neurons;
     private NeuronType type;
     private final NeuralNetwork network; // for later commits "back propagation"
+    private Layer parentLayer;
+
+    private int inputCount;
+    private FloatBuffer weightBuffer = FloatBuffer.wrap(new float[0]);
+    private FloatBuffer biasBuffer = FloatBuffer.wrap(new float[0]);
+    private FloatBuffer weightDeltaBuffer = FloatBuffer.wrap(new float[0]);
+    private FloatBuffer biasDeltaBuffer = FloatBuffer.wrap(new float[0]);
+    private float[] weights = weightBuffer.array(); // null, if stored off-heap
+    private float[] biases = biasBuffer.array();
+    private float[] weightDeltas = weightDeltaBuffer.array();
+    private float[] biasDeltas = biasDeltaBuffer.array();
+    private FloatBuffer[] weightStates = new FloatBuffer[0]; // of the optimizer, parallel to the weights
+    private FloatBuffer[] biasStates = new FloatBuffer[0];
+    private float[][] scratch; // chunks of parameters stored off-heap during an update
+    private float[] sums = new float[0];
+    private float[] outputs = new float[0];
+    private float[] errors = new float[0];
+    private float[] derivatives = new float[0];
+    private IActivationFunction activation; // shared by every neuron, null if they differ
+    private boolean activationChecked;
+    private SoftMaxActivation softMaxActivation;
 
     public Layer(String name, NeuralNetwork network) {
         this.name = name;
@@ -28,15 +78,6 @@ public final class Layer {
         this.neurons = new ArrayList<>();
     }
 
-    /**
-     * Returns an error value for a given parent neuron in connection (binding)
-     */
-    private float calculateHiddenError(Neuron parentNeuron) {
-        return (float) neurons.stream()
-                .mapToDouble(childNeuron -> childNeuron.calculateParentError(parentNeuron))
-                .sum();
-    }
-
     /**
      * Appends new neurons (no softmax on output)
      */
@@ -45,8 +86,9 @@ public final class Layer {
 
         Function<Integer, Neuron> builder = detectNeuronBuilder(type, softmax);
 
+        int offset = neurons.size();
         for (int i = 0; i < neuronsCount; i++) {
-            Neuron neuron = builder.apply(i);
+            Neuron neuron = builder.apply(offset + i);
             if (neuron == null) {
                 throw new RuntimeException("Builder invalid! It created a null-neuron!");
             }
@@ -68,6 +110,14 @@ public final class Layer {
         if (neuronsCount > neurons.size()) {
             throw new RuntimeException("Issues during creating neurons! count not as expected");
         }
+
+        int count = neurons.size();
+        setBiasBuffer(resize(biasBuffer, count));
+        sums = Arrays.copyOf(sums, count);
+        outputs = Arrays.copyOf(outputs, count);
+        errors = Arrays.copyOf(errors, count);
+        derivatives = Arrays.copyOf(derivatives, count);
+        activationChecked = false;
     }
 
     /**
@@ -82,54 +132,596 @@ public final class Layer {
      * Requires a layer of type {@link NeuronType#INPUT} or {@link NeuronType#HIDDEN}
      */
     public Layer bindFullMesh(Layer parentLayer) {
-        if (parentLayer.getType() != NeuronType.OUTPUT) {
-            if (neurons.isEmpty()) {
-                throw new RuntimeException("Cannot bind on empty set of neurons. Neurons undefined!");
-            }
-            int i = 0;
-            for (Neuron neuron : neurons) {
-                if (neuron instanceof IPropagateBack) {
-                    bindToLayerNeurons(parentLayer, (IPropagateBack) neuron);
-                    i++;
-                }
-            }
-            if (i < neurons.size()) {
+        return bindFullMesh(parentLayer, null, null);
+    }
+
+    /**
+     * Like {@link #bindFullMesh(Layer)} and sets the weights by the initializer, if not {@code null}.<br/>
+     * The neurons are bound and initialized in blocks of rows, which run in parallel for wide layers. Each block
+     * gets its own random generator, split off the given one in order of the blocks. So the bindings and weights
+     * do not depend on the number of threads or their scheduling.
+     */
+    Layer bindFullMesh(Layer parentLayer, IWeightInitializer initializer, SplittableRandom random) {
+        if (parentLayer.getType() == NeuronType.OUTPUT) {
+            throw new IllegalArgumentException("Your parent layer is output layer!");
+        }
+        if (neurons.isEmpty()) {
+            throw new RuntimeException("Cannot bind on empty set of neurons. Neurons undefined!");
+        }
+        for (Neuron neuron : neurons) {
+            if (!(neuron instanceof IPropagateBack)) {
                 throw new RuntimeException("Cannot bind new neurons to parent layer. Neuron is not of type "
                         + IPropagateBack.class.getCanonicalName());
             }
-        } else {
-            throw new IllegalArgumentException("Your parent layer is output layer!");
         }
+        this.parentLayer = parentLayer;
+        this.inputCount = parentLayer.countNeurons();
+        setWeightBuffer(allocate(neurons.size() * inputCount));
+
+        // one list for all neurons, they create their bindings on read
+        List<IBindableSourceNeuron> sources = new ArrayList<>(parentLayer.neurons.size());
+        for (Neuron neuron : parentLayer.neurons) {
+            if (neuron instanceof IBindableSourceNeuron) {
+                sources.add((IBindableSourceNeuron) neuron);
+            }
+        }
+        List<IBindableSourceNeuron> sourceNeurons = Collections.unmodifiableList(sources);
+
+        int rows = Math.max(1, BLOCK_WEIGHTS / Math.max(1, inputCount));
+        int blocks = (neurons.size() + rows - 1) / rows;
+        SplittableRandom[] randoms = new SplittableRandom[blocks];
+        for (int b = 0; initializer != null && b < blocks; b++) {
+            randoms[b] = random.split();
+        }
+        boolean initializing = initializer != null && hasWeights();
+
+        IntStream blockStream = IntStream.range(0, blocks);
+        if (blocks > 1) {
+            blockStream = blockStream.parallel();
+        }
+        blockStream.forEach(b -> {
+            int from = b * rows;
+            int to = Math.min(from + rows, neurons.size());
+            for (int n = from; n < to; n++) {
+                ((IPropagateBack) neurons.get(n)).bindToInputNeurons(sourceNeurons);
+            }
+            if (initializing) {
+                initializer.initialize(rows(weightBuffer, from, to), inputCount, neurons.size(), randoms[b]);
+            }
+        });
         return this;
     }
 
     /**
-     * Fetch neurons inputs, sum them and update output to all neurons in here. Do it parallel, if you like.
+     * Returns the rows [from, to) of the weight matrix as buffer of their own
+     */
+    private FloatBuffer rows(FloatBuffer matrix, int from, int to) {
+        FloatBuffer rows = matrix.duplicate();
+        // cast for Java 8, which has no covariant return types on buffers
+        ((Buffer) rows).limit(to * inputCount).position(from * inputCount);
+        return rows.slice();
+    }
+
+    /**
+     * Fetch neurons inputs, sum them and update output to all neurons in here.<br/>
+     * This is one matrix-vector product of the weight matrix and the parent layer outputs.
      */
     public void propagate() {
-        neurons.forEach(Neuron::propagate);
+        float[] input = parentLayer != null ? parentLayer.outputs : null;
+        int count = neurons.size();
+        for (int n = 0; n < count; n++) {
+            sums[n] = weightedSum(n, input);
+        }
+        IActivationFunction shared = getSharedActivation();
+        if (shared != null) {
+            shared.activate(sums, outputs, 0, count);
+        } else {
+            for (int n = 0; n < count; n++) {
+                outputs[n] = neurons.get(n).getActivation().activate(sums[n]);
+            }
+        }
+    }
+
+    /**
+     * Fetch the inputs of a single neuron, sum them and update its output
+     */
+    public void propagate(int neuronIndex) {
+        float[] input = parentLayer != null ? parentLayer.outputs : null;
+        sums[neuronIndex] = weightedSum(neuronIndex, input);
+        outputs[neuronIndex] = neurons.get(neuronIndex).getActivation().activate(sums[neuronIndex]);
+    }
+
+    /**
+     * Propagates a batch of rows through this layer without touching the values held by the layer. Rows are laid
+     * out one after another, so input holds rows x parent neurons values and output receives rows x neurons values.
+     */
+    void propagate(float[] input, float[] output, int rows) {
+        int count = neurons.size();
+        if (weights != null) {
+            multiply(weights, biases, inputCount, input, output, rows);
+        } else {
+            multiply(weightBuffer, biasBuffer, inputCount, input, output, rows);
+        }
+
+        // activate the sums in place, row by row (softmax normalizes a row)
+        IActivationFunction shared = getSharedActivation();
+        for (int r = 0; r < rows; r++) {
+            int out = r * count;
+            if (shared != null) {
+                shared.activate(output, output, out, out + count);
+            } else {
+                for (int n = 0; n < count; n++) {
+                    output[out + n] = neurons.get(n).getActivation().activate(output[out + n]);
+                }
+            }
+        }
+    }
+
+    /**
+     * One matrix-matrix product of input rows and a transposed row-major weight matrix, plus the biases. Writes
+     * rows x biases.length sums into output.<br/>
+     * Four rows are summed up at once, so each weight is loaded once for four rows.
+     */
+    static void multiply(float[] w, float[] biases, int inputCount, float[] input, float[] output, int rows) {
+        int count = biases.length;
+        int r = 0;
+        for (; r + 4 <= rows; r += 4) {
+            int in0 = r * inputCount;
+            int in1 = in0 + inputCount;
+            int in2 = in1 + inputCount;
+            int in3 = in2 + inputCount;
+            int out = r * count;
+            for (int n = 0; n < count; n++) {
+                int row = n * inputCount;
+                float sum0 = 0;
+                float sum1 = 0;
+                float sum2 = 0;
+                float sum3 = 0;
+                for (int i = 0; i < inputCount; i++) {
+                    float weight = w[row + i];
+                    sum0 += weight * input[in0 + i];
+                    sum1 += weight * input[in1 + i];
+                    sum2 += weight * input[in2 + i];
+                    sum3 += weight * input[in3 + i];
+                }
+                float bias = biases[n];
+                output[out + n] = sum0 + bias;
+                output[out + count + n] = sum1 + bias;
+                output[out + 2 * count + n] = sum2 + bias;
+                output[out + 3 * count + n] = sum3 + bias;
+            }
+        }
+        for (; r < rows; r++) {
+            int in = r * inputCount;
+            int out = r * count;
+            for (int n = 0; n < count; n++) {
+                int row = n * inputCount;
+                float sum = 0;
+                for (int i = 0; i < inputCount; i++) {
+                    sum += w[row + i] * input[in + i];
+                }
+                output[out + n] = sum + biases[n];
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #multiply(float[], float[], int, float[], float[], int)} for weights and biases in buffers
+     */
+    static void multiply(FloatBuffer w, FloatBuffer biases, int inputCount, float[] input, float[] output, int rows) {
+        int count = biases.capacity();
+        int r = 0;
+        for (; r + 4 <= rows; r += 4) {
+            int in0 = r * inputCount;
+            int in1 = in0 + inputCount;
+            int in2 = in1 + inputCount;
+            int in3 = in2 + inputCount;
+            int out = r * count;
+            for (int n = 0; n < count; n++) {
+                int row = n * inputCount;
+                float sum0 = 0;
+                float sum1 = 0;
+                float sum2 = 0;
+                float sum3 = 0;
+                for (int i = 0; i < inputCount; i++) {
+                    float weight = w.get(row + i);
+                    sum0 += weight * input[in0 + i];
+                    sum1 += weight * input[in1 + i];
+                    sum2 += weight * input[in2 + i];
+                    sum3 += weight * input[in3 + i];
+                }
+                float bias = biases.get(n);
+                output[out + n] = sum0 + bias;
+                output[out + count + n] = sum1 + bias;
+                output[out + 2 * count + n] = sum2 + bias;
+                output[out + 3 * count + n] = sum3 + bias;
+            }
+        }
+        for (; r < rows; r++) {
+            int in = r * inputCount;
+            int out = r * count;
+            for (int n = 0; n < count; n++) {
+                int row = n * inputCount;
+                float sum = 0;
+                for (int i = 0; i < inputCount; i++) {
+                    sum += w.get(row + i) * input[in + i];
+                }
+                output[out + n] = sum + biases.get(n);
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of input x weight of one row of the weight matrix plus the neuron bias
+     */
+    private float weightedSum(int neuronIndex, float[] input) {
+        float[] w = weights;
+        int row = neuronIndex * inputCount;
+        float sum = 0;
+        if (w != null) {
+            for (int i = 0; i < inputCount; i++) {
+                sum += w[row + i] * input[i];
+            }
+        } else {
+            FloatBuffer buffer = weightBuffer;
+            for (int i = 0; i < inputCount; i++) {
+                sum += buffer.get(row + i) * input[i];
+            }
+        }
+        return sum + getBias(neuronIndex);
+    }
+
+    /**
+     * Sets the output values of an input layer directly as input values
+     *
+     * @throws IllegalArgumentException Your values need to be valid between 0 (zero) and 1 (one)
+     */
+    public void setInputValues(float[] values) throws IllegalArgumentException {
+        if (type != NeuronType.INPUT) {
+            throw new RuntimeException("Cannot set input values at another layer type than input layer! type = " + type);
+        }
+        for (float value : values) {
+            InputNeuron.requireNormalized(value);
+        }
+        System.arraycopy(values, 0, outputs, 0, outputs.length);
     }
 
     /**
      * Returns any output value in order of neurons
      */
     public float[] getOutputs() {
-        float[] result = new float[neurons.size()];
-        for (int i = 0; i < neurons.size(); i++) {
-            Neuron neuron = neurons.get(i);
-            result[i] = neuron.getOutputValue();
+        return outputs.clone();
+    }
+
+    /**
+     * Copies any output value in order of neurons into the given array
+     */
+    public void readOutputs(float[] target) {
+        System.arraycopy(outputs, 0, target, 0, outputs.length);
+    }
+
+    /**
+     * Returns the number of weights and biases in this layer
+     */
+    int countParameters() {
+        return weightBuffer.capacity() + biasBuffer.capacity();
+    }
+
+    /**
+     * Copies weights (row-major) and then biases of this layer into the given buffer
+     */
+    void writeParameters(FloatBuffer target) {
+        target.put(weightBuffer.duplicate()).put(biasBuffer.duplicate());
+    }
+
+    /**
+     * Copies weights (row-major) and then biases of this layer out of the given buffer
+     */
+    void readParameters(FloatBuffer source) {
+        readWeights(source);
+        readBiases(source);
+    }
+
+    /**
+     * Uses the weights (row-major) and then biases in the given buffer as storage of this layer, without copying
+     * them. Used to map a model file into memory.
+     */
+    void mapParameters(FloatBuffer source) {
+        int weightCount = neurons.size() * inputCount;
+        if (source.remaining() < weightCount + neurons.size()) {
+            throw new IllegalArgumentException(format("Layer {0} needs {1} weights and biases, but got {2}!",
+                    name, weightCount + neurons.size(), source.remaining()));
         }
-        return result;
+        setWeightBuffer(next(source, weightCount));
+        setBiasBuffer(next(source, neurons.size()));
     }
 
-    private void bindToLayerNeurons(Layer parentLayer, IPropagateBack n) {
-        List<IBindableSourceNeuron> sourceNeurons = new ArrayList<>();
-        for (Neuron neuron : parentLayer.neurons) {
-            if (neuron instanceof IBindableSourceNeuron) {
-                sourceNeurons.add((IBindableSourceNeuron) neuron);
+    /**
+     * Copies the weights (row-major) of this layer out of the given buffer
+     */
+    void readWeights(FloatBuffer source) {
+        if (source.remaining() < weightBuffer.capacity()) {
+            throw new IllegalArgumentException(format("Layer {0} needs {1} weights, but got {2}!",
+                    name, weightBuffer.capacity(), source.remaining()));
+        }
+        weightBuffer.duplicate().put(next(source, weightBuffer.capacity()));
+    }
+
+    /**
+     * Copies the weights of this layer out of one list of weights per neuron
+     */
+    void readWeights(List<List<Float>> rows) {
+        if (rows.size() != neurons.size()) {
+            throw new IllegalArgumentException(format("Layer {0} needs weights for {1} neurons, but got {2}!",
+                    name, neurons.size(), rows.size()));
+        }
+        for (int n = 0; n < rows.size(); n++) {
+            List<Float> row = rows.get(n);
+            if (row.size() != inputCount) {
+                throw new IllegalArgumentException(format("Layer {0} needs {1} weights per neuron, but got {2}!",
+                        name, inputCount, row.size()));
+            }
+            for (int i = 0; i < inputCount; i++) {
+                setWeight(n, i, row.get(i));
+            }
+        }
+    }
+
+    /**
+     * Copies the biases of this layer out of a list with one bias per neuron
+     */
+    void readBiases(List<Float> values) {
+        if (values.size() != biasBuffer.capacity()) {
+            throw new IllegalArgumentException(format("Layer {0} needs {1} biases, but got {2}!",
+                    name, biasBuffer.capacity(), values.size()));
+        }
+        for (int n = 0; n < values.size(); n++) {
+            setBias(n, values.get(n));
+        }
+    }
+
+    /**
+     * Copies the biases of this layer out of the given buffer
+     */
+    void readBiases(FloatBuffer source) {
+        if (source.remaining() < biasBuffer.capacity()) {
+            throw new IllegalArgumentException(format("Layer {0} needs {1} biases, but got {2}!",
+                    name, biasBuffer.capacity(), source.remaining()));
+        }
+        biasBuffer.duplicate().put(next(source, biasBuffer.capacity()));
+    }
+
+    /**
+     * Returns a copy of the weights (row-major) in the same kind of storage
+     */
+    FloatBuffer copyWeights() {
+        FloatBuffer copy = allocate(weightBuffer.capacity());
+        copy.duplicate().put(weightBuffer.duplicate());
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the biases in the same kind of storage
+     */
+    FloatBuffer copyBiases() {
+        FloatBuffer copy = allocate(biasBuffer.capacity());
+        copy.duplicate().put(biasBuffer.duplicate());
+        return copy;
+    }
+
+    /**
+     * Returns the next count floats of the source as buffer of their own and moves the source behind them
+     */
+    private static FloatBuffer next(FloatBuffer source, int count) {
+        FloatBuffer slice = source.slice();
+        // cast for Java 8, which has no covariant return types on buffers
+        ((Buffer) slice).limit(count);
+        ((Buffer) source).position(source.position() + count);
+        return slice.slice();
+    }
+
+    /**
+     * Allocates a buffer for weights, biases or deltas in the storage of the network
+     */
+    private FloatBuffer allocate(int size) {
+        if (!network.isAllocatingParameters()) {
+            // the parameters get mapped from a file afterwards
+            size = 0;
+        }
+        return network.getStorage().allocate(size);
+    }
+
+    /**
+     * Allocates a buffer of the given size and copies the values of the given buffer, as many as fit
+     */
+    private FloatBuffer resize(FloatBuffer buffer, int size) {
+        FloatBuffer resized = allocate(size);
+        int count = Math.min(size, Math.min(buffer.capacity(), resized.capacity()));
+        for (int i = 0; i < count; i++) {
+            resized.put(i, buffer.get(i));
+        }
+        return resized;
+    }
+
+    private void setWeightBuffer(FloatBuffer buffer) {
+        weightBuffer = buffer;
+        weights = buffer.hasArray() ? buffer.array() : null;
+    }
+
+    private void setBiasBuffer(FloatBuffer buffer) {
+        biasBuffer = buffer;
+        biases = buffer.hasArray() ? buffer.array() : null;
+    }
+
+    private void setWeightDeltaBuffer(FloatBuffer buffer) {
+        weightDeltaBuffer = buffer;
+        weightDeltas = buffer.hasArray() ? buffer.array() : null;
+    }
+
+    private void setBiasDeltaBuffer(FloatBuffer buffer) {
+        biasDeltaBuffer = buffer;
+        biasDeltas = buffer.hasArray() ? buffer.array() : null;
+    }
+
+    /**
+     * Allocates the deltas of weights and biases, if they do not match the parameters anymore
+     */
+    private void requireDeltas() {
+        if (weightDeltaBuffer.capacity() != weightBuffer.capacity()) {
+            setWeightDeltaBuffer(allocate(weightBuffer.capacity()));
+        }
+        if (biasDeltaBuffer.capacity() != biasBuffer.capacity()) {
+            setBiasDeltaBuffer(allocate(biasBuffer.capacity()));
+        }
+    }
+
+    /**
+     * Sets the activation function for every neuron of this layer
+     */
+    public void setActivation(IActivationFunction activation) {
+        neurons.forEach(n -> n.setActivation(activation));
+    }
+
+    /**
+     * Returns the activation function, if every neuron in this layer uses the same one, else {@code null}.
+     * A shared activation function converts the whole layer at once.
+     */
+    public IActivationFunction getSharedActivation() {
+        if (!activationChecked) {
+            activation = neurons.isEmpty() ? null : neurons.get(0).getActivation();
+            for (Neuron neuron : neurons) {
+                if (neuron.getActivation() != activation) {
+                    activation = null;
+                    break;
+                }
             }
+            activationChecked = true;
+        }
+        return activation;
+    }
+
+    /**
+     * Returns the one softmax activation shared by the neurons of this layer
+     */
+    public SoftMaxActivation getSoftMaxActivation() {
+        if (softMaxActivation == null) {
+            softMaxActivation = new SoftMaxActivation(this);
+        }
+        return softMaxActivation;
+    }
+
+    /**
+     * Tells this layer, that an activation function of a neuron was changed
+     */
+    public void invalidateActivation() {
+        activationChecked = false;
+    }
+
+    /**
+     * Returns the layer, which neurons each neuron in here is bound to
+     */
+    public Layer getParentLayer() {
+        return parentLayer;
+    }
+
+    /**
+     * Returns the number of parent layer neurons each neuron in here is bound to
+     */
+    public int countInputs() {
+        return inputCount;
+    }
+
+    /**
+     * Returns the weight of a neuron in this layer to a neuron in the parent layer
+     */
+    public float getWeight(int neuronIndex, int inputIndex) {
+        return weightAt(neuronIndex * inputCount + inputIndex);
+    }
+
+    /**
+     * Replaces the weight of a neuron in this layer to a neuron in the parent layer
+     */
+    public void setWeight(int neuronIndex, int inputIndex, float weight) {
+        putWeight(neuronIndex * inputCount + inputIndex, weight);
+    }
+
+    /**
+     * Returns {@code true}, if memory for the weights was allocated or mapped
+     */
+    boolean hasWeights() {
+        return weightBuffer.capacity() > 0;
+    }
+
+    /**
+     * Returns a weight by its position in the row-major weight matrix
+     */
+    float weightAt(int weightIndex) {
+        return weights != null ? weights[weightIndex] : weightBuffer.get(weightIndex);
+    }
+
+    /**
+     * Replaces a weight by its position in the row-major weight matrix
+     */
+    void putWeight(int weightIndex, float weight) {
+        if (weights != null) {
+            weights[weightIndex] = weight;
+        } else {
+            weightBuffer.put(weightIndex, weight);
+        }
+    }
+
+    /**
+     * Returns the sum of input x weight plus bias of a neuron in this layer, before it was activated
+     */
+    public float getSum(int neuronIndex) {
+        return sums[neuronIndex];
+    }
+
+    /**
+     * Returns the output value of a neuron in this layer
+     */
+    public float getOutput(int neuronIndex) {
+        return outputs[neuronIndex];
+    }
+
+    /**
+     * Replaces the output value of a neuron in this layer
+     */
+    public void setOutput(int neuronIndex, float output) {
+        outputs[neuronIndex] = output;
+    }
+
+    /**
+     * Returns the bias of a neuron in this layer
+     */
+    @LearningData
+    public float getBias(int neuronIndex) {
+        return biases != null ? biases[neuronIndex] : biasBuffer.get(neuronIndex);
+    }
+
+    /**
+     * Replaces the bias of a neuron in this layer
+     */
+    public void setBias(int neuronIndex, float bias) {
+        if (biases != null) {
+            biases[neuronIndex] = bias;
+        } else {
+            biasBuffer.put(neuronIndex, bias);
         }
-        n.bindToInputNeurons(sourceNeurons);
+    }
+
+    /**
+     * Returns the error of a neuron in this layer
+     */
+    public float getError(int neuronIndex) {
+        return errors[neuronIndex];
+    }
+
+    /**
+     * Replaces the error of a neuron in this layer
+     */
+    public void setError(int neuronIndex, float error) {
+        errors[neuronIndex] = error;
     }
 
     /**
@@ -140,13 +732,13 @@ public final class Layer {
 
         switch (type) {
             case HIDDEN:
-                builder = i -> new HiddenNeuron(format("{0}{1}/H{2}", type.toString(), name, String.valueOf(i)), this);
+                builder = i -> new HiddenNeuron(null, i, this);
                 break;
             case INPUT:
-                builder = i -> new InputNeuron(format("{0}{1}/I{2}", type.toString(), name, String.valueOf(i)), this);
+                builder = i -> new InputNeuron(null, i, this);
                 break;
             case OUTPUT:
-                builder = i -> new OutputNeuron(format("{0}{1}/O{2}", type.toString(), name, String.valueOf(i)), softmax, this);
+                builder = i -> new OutputNeuron(null, softmax, i, this);
                 break;
             default:
                 throw new IllegalArgumentException("Missing neuron type: " + type);
@@ -154,6 +746,14 @@ public final class Layer {
         return builder;
     }
 
+    /**
+     * Returns the name of a neuron without a given name, like "HIDDENhidden/H3"
+     */
+    public String getNeuronName(int index) {
+        char letter = type == NeuronType.INPUT ? 'I' : type == NeuronType.OUTPUT ? 'O' : 'H';
+        return type.toString() + name + '/' + letter + index;
+    }
+
     /**
      * Returns the number of neurons in this layer
      */
@@ -165,18 +765,26 @@ public final class Layer {
      * Returns weights to each neuron in this layer and it own weight to it input bindings
      */
     public List<List<Float>> getWeights() {
-        return neurons.stream()
-                .map(Neuron::getWeights)
-                .collect(toList());
+        List<List<Float>> result = new ArrayList<>(neurons.size());
+        for (int n = 0; n < neurons.size(); n++) {
+            List<Float> row = new ArrayList<>(inputCount);
+            for (int i = 0; i < inputCount; i++) {
+                row.add(getWeight(n, i));
+            }
+            result.add(row);
+        }
+        return result;
     }
 
     /**
      * Returns biases to each neuron
      */
     public List<Float> getBiases() {
-        return neurons.stream()
-                .map(Neuron::getBias)
-                .collect(toList());
+        List<Float> result = new ArrayList<>(biasBuffer.capacity());
+        for (int n = 0; n < biasBuffer.capacity(); n++) {
+            result.add(getBias(n));
+        }
+        return result;
     }
 
   public static List<Neuron> getNeurons(Layer layer) {
@@ -184,13 +792,208 @@ public final class Layer {
     }
 
     /**
-     * After every error value on each neuron was calculated, this function accepts each weight delta to its bindings.
-     * This is the learning process. This annotation {@link LearningData} represents only a marker for learning relevant
-     * data. It is a flag.
+     * After every error value on each neuron was calculated, this function collects each weight delta
+     * (error x parent output) and bias delta (error) of the current test unit, until they get applied.
+     */
+    void accumulateDeltas() {
+        requireDeltas();
+        float[] input = parentLayer.outputs;
+        int count = neurons.size();
+        if (weightDeltas != null) {
+            for (int n = 0; n < count; n++) {
+                float error = errors[n];
+                biasDeltas[n] += error;
+                int row = n * inputCount;
+                for (int i = 0; i < inputCount; i++) {
+                    weightDeltas[row + i] += error * input[i];
+                }
+            }
+        } else {
+            FloatBuffer deltas = weightDeltaBuffer;
+            for (int n = 0; n < count; n++) {
+                float error = errors[n];
+                biasDeltaBuffer.put(n, biasDeltaBuffer.get(n) + error);
+                int row = n * inputCount;
+                for (int i = 0; i < inputCount; i++) {
+                    deltas.put(row + i, deltas.get(row + i) + error * input[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the collected deltas of a layer with the same shape to the deltas in here and resets them in the other
+     */
+    void takeDeltas(Layer other) {
+        requireDeltas();
+        if (other.weightDeltaBuffer.capacity() != weightDeltaBuffer.capacity()
+                || other.biasDeltaBuffer.capacity() != biasDeltaBuffer.capacity()) {
+            return;
+        }
+        if (weightDeltas != null && other.weightDeltas != null) {
+            for (int k = 0; k < weightDeltas.length; k++) {
+                weightDeltas[k] += other.weightDeltas[k];
+                other.weightDeltas[k] = 0;
+            }
+            for (int n = 0; n < biasDeltas.length; n++) {
+                biasDeltas[n] += other.biasDeltas[n];
+                other.biasDeltas[n] = 0;
+            }
+        } else {
+            addAndClear(weightDeltaBuffer, other.weightDeltaBuffer, 1);
+            addAndClear(biasDeltaBuffer, other.biasDeltaBuffer, 1);
+        }
+    }
+
+    /**
+     * Overwrites weights and biases by the ones of a layer with the same shape
+     */
+    void copyParametersFrom(Layer other) {
+        weightBuffer.duplicate().put(other.weightBuffer.duplicate());
+        biasBuffer.duplicate().put(other.biasBuffer.duplicate());
+    }
+
+    /**
+     * Accepts the collected weight and bias deltas of the given number of test units by the optimizer and resets
+     * them. This is the learning process. This annotation {@link LearningData} represents only a marker for learning
+     * relevant data. It is a flag.
      */
     @LearningData
-    void applyDeltas(float learningGradient) {
-      this.neurons.forEach(childNeuron -> childNeuron.applyDelta(learningGradient));
+    void applyDeltas(IOptimizer optimizer, float learningGradient, int units, long step) {
+        if (weightDeltaBuffer.capacity() != weightBuffer.capacity()
+                || biasDeltaBuffer.capacity() != biasBuffer.capacity()) {
+            return;
+        }
+        requireStates(optimizer.countStates());
+        if (weights != null) {
+            optimizer.update(weights, weightDeltas, arrays(weightStates), weights.length, learningGradient, units,
+                    step);
+            optimizer.update(biases, biasDeltas, arrays(biasStates), biases.length, learningGradient, units, step);
+        } else {
+            update(optimizer, weightBuffer, weightDeltaBuffer, weightStates, learningGradient, units, step);
+            update(optimizer, biasBuffer, biasDeltaBuffer, biasStates, learningGradient, units, step);
+        }
+    }
+
+    /**
+     * Updates parameters stored off-heap chunk by chunk: parameters, deltas and states are copied at once into arrays,
+     * updated there and copied back
+     */
+    private void update(IOptimizer optimizer, FloatBuffer parameters, FloatBuffer deltas, FloatBuffer[] states,
+                        float learningGradient, int units, long step) {
+        if (scratch == null || scratch.length != states.length + 2) {
+            scratch = new float[states.length + 2][UPDATE_CHUNK];
+        }
+        float[][] stateChunks = Arrays.copyOfRange(scratch, 2, scratch.length);
+        FloatBuffer parameterView = parameters.duplicate();
+        FloatBuffer deltaView = deltas.duplicate();
+        FloatBuffer[] stateViews = new FloatBuffer[states.length];
+        for (int s = 0; s < states.length; s++) {
+            stateViews[s] = states[s].duplicate();
+        }
+        for (int from = 0; from < parameters.capacity(); from += UPDATE_CHUNK) {
+            int length = Math.min(UPDATE_CHUNK, parameters.capacity() - from);
+            // cast for Java 8, which has no covariant return types on buffers
+            ((Buffer) parameterView).position(from);
+            ((Buffer) deltaView).position(from);
+            parameterView.get(scratch[0], 0, length);
+            deltaView.get(scratch[1], 0, length);
+            for (int s = 0; s < states.length; s++) {
+                ((Buffer) stateViews[s]).position(from);
+                stateViews[s].get(stateChunks[s], 0, length);
+            }
+
+            optimizer.update(scratch[0], scratch[1], stateChunks, length, learningGradient, units, step);
+
+            ((Buffer) parameterView).position(from);
+            ((Buffer) deltaView).position(from);
+            parameterView.put(scratch[0], 0, length);
+            deltaView.put(scratch[1], 0, length);
+            for (int s = 0; s < states.length; s++) {
+                ((Buffer) stateViews[s]).position(from);
+                stateViews[s].put(stateChunks[s], 0, length);
+            }
+        }
+    }
+
+    /**
+     * Allocates the states of the optimizer (all 0), if there are not the given number of states for each parameter
+     */
+    private void requireStates(int count) {
+        if (weightStates.length != count || count > 0 && (weightStates[0].capacity() != weightBuffer.capacity()
+                || biasStates[0].capacity() != biasBuffer.capacity())) {
+            weightStates = new FloatBuffer[count];
+            biasStates = new FloatBuffer[count];
+            for (int s = 0; s < count; s++) {
+                weightStates[s] = allocate(weightBuffer.capacity());
+                biasStates[s] = allocate(biasBuffer.capacity());
+            }
+        }
+    }
+
+    /**
+     * Drops the states of the optimizer, the next update starts with states of 0 (zero)
+     */
+    void clearStates() {
+        weightStates = new FloatBuffer[0];
+        biasStates = new FloatBuffer[0];
+    }
+
+    /**
+     * Returns the number of optimizer states kept for each weight and bias
+     */
+    int countStates() {
+        return weightStates.length;
+    }
+
+    /**
+     * Copies the optimizer states into the given buffer: for each state the one of the weights and then the one of
+     * the biases
+     */
+    void writeStates(FloatBuffer target) {
+        for (int s = 0; s < weightStates.length; s++) {
+            target.put(weightStates[s].duplicate()).put(biasStates[s].duplicate());
+        }
+    }
+
+    /**
+     * Copies the given number of optimizer states out of the given buffer, see {@link #writeStates(FloatBuffer)}
+     */
+    void readStates(FloatBuffer source, int count) {
+        requireStates(count);
+        for (int s = 0; s < count; s++) {
+            copy(source, weightStates[s]);
+            copy(source, biasStates[s]);
+        }
+    }
+
+    /**
+     * Copies as many floats out of the source as the target can hold and moves the source behind them
+     */
+    private static void copy(FloatBuffer source, FloatBuffer target) {
+        int count = target.capacity();
+        if (source.remaining() < count) {
+            throw new IllegalArgumentException(format("Needs {0} states, but got {1}!", count, source.remaining()));
+        }
+        target.duplicate().put(next(source, count));
+    }
+
+    private static float[][] arrays(FloatBuffer[] buffers) {
+        float[][] arrays = new float[buffers.length][];
+        for (int i = 0; i < buffers.length; i++) {
+            arrays[i] = buffers[i].array();
+        }
+        return arrays;
+    }
+
+    /**
+     * Adds factor x source to the target, element by element, and clears the source
+     */
+    private static void addAndClear(FloatBuffer target, FloatBuffer source, float factor) {
+        for (int k = 0; k < target.capacity(); k++) {
+            target.put(k, target.get(k) + factor * source.get(k));
+            source.put(k, 0);
+        }
     }
 
     /**
@@ -210,10 +1013,28 @@ public final class Layer {
         if (desiredValues == null || desiredValues.length != countNeurons()) {
             throw new IllegalArgumentException("Your desired values must be count of neurons in the output layer!");
         }
-        for (int i = 0; i < neurons.size(); i++) {
-            Neuron neuron = neurons.get(i);
-            neuron.setDesired(desiredValues[i]);
-            neuron.updateError();
+        int count = neurons.size();
+        for (int n = 0; n < count; n++) {
+            neurons.get(n).setDesired(desiredValues[n]);
+        }
+
+        if (isCrossEntropy()) {
+            // softmax and cross-entropy together derive to the plain difference
+            for (int n = 0; n < count; n++) {
+                errors[n] = desiredValues[n] - outputs[n];
+            }
+            return;
+        }
+        IActivationFunction shared = getSharedActivation();
+        if (shared != null) {
+            shared.derive(outputs, derivatives, 0, count);
+        } else {
+            for (int n = 0; n < count; n++) {
+                derivatives[n] = neurons.get(n).getActivation().derive(outputs[n]);
+            }
+        }
+        for (int n = 0; n < count; n++) {
+            errors[n] = derivatives[n] * (desiredValues[n] - outputs[n]);
         }
     }
 
@@ -229,31 +1050,87 @@ public final class Layer {
         if (childLayer == null) {
             throw new RuntimeException("No child layer found on layer: " + name);
         }
-        for (Neuron parentNeuron : neurons) {
-            parentNeuron.setError(childLayer.calculateHiddenError(parentNeuron));
+
+        // error = transposed child weight matrix x child errors, walked row by row of the child matrix
+        float[] childWeights = childLayer.weights;
+        float[] childErrors = childLayer.errors;
+        int count = neurons.size();
+        Arrays.fill(errors, 0);
+        if (childWeights != null) {
+            for (int c = 0; c < childErrors.length; c++) {
+                float childError = childErrors[c];
+                int row = c * count;
+                for (int p = 0; p < count; p++) {
+                    errors[p] += childWeights[row + p] * childError;
+                }
+            }
+        } else {
+            FloatBuffer buffer = childLayer.weightBuffer;
+            for (int c = 0; c < childErrors.length; c++) {
+                float childError = childErrors[c];
+                int row = c * count;
+                for (int p = 0; p < count; p++) {
+                    errors[p] += buffer.get(row + p) * childError;
+                }
+            }
+        }
+        IActivationFunction shared = getSharedActivation();
+        if (shared != null) {
+            shared.derive(outputs, derivatives, 0, count);
+        } else {
+            for (int p = 0; p < count; p++) {
+                derivatives[p] = neurons.get(p).getActivation().derive(outputs[p]);
+            }
+        }
+        for (int p = 0; p < count; p++) {
+            errors[p] *= derivatives[p];
         }
     }
 
   /**
-   * Averages the differences between expectations and actual values
+   * Averages the squared differences between expectations and actual values (mean squared error)
    */
   public float getTotalError(float[] desiredValues) {
     if (type != NeuronType.OUTPUT) {
       throw new RuntimeException("Can only be used on output layer!");
     }
     float sum = 0;
-    for (int i = 0; i < neurons.size(); i++) {
-      Neuron neuron = neurons.get(i);
-      float desiredValue = desiredValues[i];
-      float actualValue = neuron.getOutputValue();
-
+    for (int i = 0; i < outputs.length; i++) {
       // need to be positive, because an error value can be fixed by increasing or descreasing
-      sum = (float) Math.pow(desiredValue - actualValue, 2);
+      float difference = desiredValues[i] - outputs[i];
+      sum += difference * difference;
     }
-    return sum / countNeurons();
+    return sum / outputs.length;
+  }
+
+  /**
+   * Returns the cross-entropy between expectations and actual values, the loss of a softmax output layer.
+   * Outputs are limited to {@link #MIN_PROBABILITY}, so a wrong certain output does not end up infinite.
+   */
+  public float getCrossEntropy(float[] desiredValues) {
+    if (type != NeuronType.OUTPUT) {
+      throw new RuntimeException("Can only be used on output layer!");
+    }
+    float sum = 0;
+    for (int i = 0; i < outputs.length; i++) {
+      if (desiredValues[i] != 0) {
+        sum -= desiredValues[i] * (float) Math.log(Math.max(outputs[i], MIN_PROBABILITY));
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Returns {@code true}, if the neurons of this layer share a softmax activation trained by cross-entropy
+   */
+  boolean isCrossEntropy() {
+    IActivationFunction shared = getSharedActivation();
+    return shared instanceof SoftMaxActivation && ((SoftMaxActivation) shared).isCrossEntropy();
   }
 
   public void setBiases(float bias) {
-    neurons.forEach(n -> n.setBias(bias));
+    for (int n = 0; n < biasBuffer.capacity(); n++) {
+      setBias(n, bias);
+    }
   }
 }
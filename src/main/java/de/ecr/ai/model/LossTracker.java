@@ -0,0 +1,72 @@
+package de.ecr.ai.model;
+
+/**
+ * Accumulates the loss of test units over a generation. The sums are kept in double precision, so the mean of
+ * thousands of small errors does not get lost in rounding. Nothing is allocated while tracking.
+ * <br/>
+ * The loss is the mean squared error, for a softmax output layer it is the cross-entropy.
+ *
+ * @author Bjoern Frohberg
+ */
+final class LossTracker {
+
+  private double squaredErrors;
+  private double crossEntropy;
+  private int units;
+  private boolean crossEntropyUsed;
+
+  /**
+   * Adds the loss of the last propagated test unit
+   */
+  void add(Layer outputLayer, float[] desiredValues) {
+    squaredErrors += outputLayer.getTotalError(desiredValues);
+    if (outputLayer.isCrossEntropy()) {
+      crossEntropy += outputLayer.getCrossEntropy(desiredValues);
+      crossEntropyUsed = true;
+    }
+    units++;
+  }
+
+  /**
+   * Adds everything another tracker has collected
+   */
+  void add(LossTracker other) {
+    squaredErrors += other.squaredErrors;
+    crossEntropy += other.crossEntropy;
+    units += other.units;
+    crossEntropyUsed |= other.crossEntropyUsed;
+  }
+
+  void reset() {
+    squaredErrors = 0;
+    crossEntropy = 0;
+    units = 0;
+    crossEntropyUsed = false;
+  }
+
+  int getUnits() {
+    return units;
+  }
+
+  /**
+   * Returns the summed loss of all units, see {@link #getLoss()}
+   */
+  double getLossSum() {
+    return crossEntropyUsed ? crossEntropy : squaredErrors;
+  }
+
+  /**
+   * Returns the mean loss of all units, 0 (zero) for no units
+   */
+  float getLoss() {
+    return units > 0 ? (float) (getLossSum() / units) : 0;
+  }
+
+  float getMeanSquaredError() {
+    return units > 0 ? (float) (squaredErrors / units) : 0;
+  }
+
+  float getCrossEntropy() {
+    return units > 0 ? (float) (crossEntropy / units) : 0;
+  }
+}
@@ -0,0 +1,166 @@
+package de.ecr.ai.model;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes and reads the json layout of {@link MemoryData} as a stream of tokens. The weights and biases go straight
+ * from and into the primitive layer storage, so no lists of boxed numbers are built.
+ *
+ * @author Bjoern Frohberg
+ */
+final class MemoryDataJson {
+
+  private static final JsonFactory FACTORY = new JsonFactory()
+    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+    .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+  private MemoryDataJson() {
+  }
+
+  /**
+   * Writes the memory of a network as json in the field order of {@link MemoryData}
+   */
+  static void write(NeuralNetwork network, OutputStream out) throws IOException {
+    List<Layer> layers = network.getLayers();
+    try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+      generator.writeStartObject();
+      generator.writeNumberField("inputs", layers.get(0).countNeurons());
+      generator.writeNumberField("hiddenLayers", layers.size() - 2);
+      generator.writeNumberField("hiddenNeurons", layers.size() > 2 ? layers.get(1).countNeurons() : 0);
+      generator.writeNumberField("outputs", layers.get(layers.size() - 1).countNeurons());
+      generator.writeBooleanField("softMaxUsed", network.isOutputSoftmax());
+
+      generator.writeArrayFieldStart("weights");
+      for (Layer layer : layers) {
+        generator.writeStartArray();
+        for (int n = 0; n < layer.countNeurons(); n++) {
+          generator.writeStartArray();
+          for (int i = 0; i < layer.countInputs(); i++) {
+            generator.writeNumber(layer.getWeight(n, i));
+          }
+          generator.writeEndArray();
+        }
+        generator.writeEndArray();
+      }
+      generator.writeEndArray();
+
+      generator.writeArrayFieldStart("biases");
+      for (Layer layer : layers) {
+        generator.writeStartArray();
+        for (int n = 0; n < layer.countNeurons(); n++) {
+          generator.writeNumber(layer.getBias(n));
+        }
+        generator.writeEndArray();
+      }
+      generator.writeEndArray();
+
+      generator.writeStringField("networkName", network.getName());
+      generator.writeNumberField("generations", network.getGenerations());
+      generator.writeNumberField("learningGradient", network.getLearningGradient());
+      generator.writeEndObject();
+    }
+  }
+
+  /**
+   * Reads json of {@link MemoryData} and restores a network by it. Weights and biases of each layer are collected
+   * into one primitive array per layer. Missing weights or biases keep their initial values.
+   */
+  static void read(NeuralNetwork network, InputStream in) throws IOException {
+    MemoryData data = new MemoryData();
+    float[][] weights = null;
+    float[][] biases = null;
+
+    try (JsonParser parser = FACTORY.createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IllegalArgumentException("Json of memory data must be an object!");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        switch (field) {
+          case "inputs":
+            data.inputs = parser.getIntValue();
+            break;
+          case "hiddenLayers":
+            data.hiddenLayers = parser.getIntValue();
+            break;
+          case "hiddenNeurons":
+            data.hiddenNeurons = parser.getIntValue();
+            break;
+          case "outputs":
+            data.outputs = parser.getIntValue();
+            break;
+          case "softMaxUsed":
+            data.softMaxUsed = parser.getBooleanValue();
+            break;
+          case "weights":
+            weights = readLayers(parser);
+            break;
+          case "biases":
+            biases = readLayers(parser);
+            break;
+          case "networkName":
+            data.networkName = parser.getValueAsString();
+            break;
+          case "generations":
+            data.generations = parser.getLongValue();
+            break;
+          case "learningGradient":
+            data.learningGradient = parser.getFloatValue();
+            break;
+          default:
+            parser.skipChildren();
+            break;
+        }
+      }
+    }
+    network.restore(data, weights, biases);
+  }
+
+  /**
+   * Reads an array of layers, each layer flattened to one array of numbers in order of their appearance
+   */
+  private static float[][] readLayers(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    List<float[]> layers = new ArrayList<>();
+    JsonToken token;
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      layers.add(token == JsonToken.START_ARRAY ? readNumbers(parser) : null);
+    }
+    return layers.toArray(new float[layers.size()][]);
+  }
+
+  private static float[] readNumbers(JsonParser parser) throws IOException {
+    float[] values = new float[16];
+    int size = 0;
+    int depth = 1;
+    while (depth > 0) {
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.START_ARRAY) {
+        depth++;
+      } else if (token == JsonToken.END_ARRAY) {
+        depth--;
+      } else if (token != null && token.isNumeric()) {
+        if (size == values.length) {
+          values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = parser.getFloatValue();
+      } else {
+        throw new IllegalArgumentException("Unexpected json token in weights or biases: " + token);
+      }
+    }
+    return Arrays.copyOf(values, size);
+  }
+}
@@ -6,13 +6,30 @@ import de.ecr.ai.model.annotation.ForTest;
 import de.ecr.ai.model.neuron.InputNeuron;
 import de.ecr.ai.model.neuron.Neuron;
 import de.ecr.ai.model.neuron.NeuronType;
+import de.ecr.ai.model.neuron.activation.IActivationFunction;
+import de.ecr.ai.model.neuron.activation.SoftMaxActivation;
+import de.ecr.ai.model.optimizer.IOptimizer;
+import de.ecr.ai.model.test.ILearningRateSchedule;
+import de.ecr.ai.model.test.ITrainingStop;
+import de.ecr.ai.model.test.ListDataSource;
+import de.ecr.ai.model.test.PrefetchingDataSource;
+import de.ecr.ai.model.test.RandomAccessDataSource;
 import de.ecr.ai.model.test.TestUnit;
+import de.ecr.ai.model.test.TrainingDataSource;
+import de.ecr.ai.model.test.TrainingProgress;
 import de.ecr.ai.model.test.TrainingSession;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.SplittableRandom;
 
 import static java.text.MessageFormat.format;
 import static java.util.stream.Collectors.toList;
@@ -38,6 +55,16 @@ public final class NeuralNetwork {
   private long generations; // to check version of the network
   private float totalError;
   private float biasAll;
+  private ParallelTrainer parallelTrainer;
+  private final LossTracker loss = new LossTracker();
+  private ParameterStorage storage = ParameterStorage.HEAP;
+  private boolean allocatingParameters = true;
+  private IWeightInitializer weightInitializer = IWeightInitializer.UNIFORM;
+  private SplittableRandom random = new SplittableRandom();
+  private IOptimizer optimizer = IOptimizer.SGD;
+  private long optimizerSteps;
+  private final EvolutionState evolution = new EvolutionState();
+  private boolean resumed;
 
   public NeuralNetwork() {
     this.layers = new ArrayList<>();
@@ -73,23 +100,134 @@ public final class NeuralNetwork {
    * neural network and passes the predicted output values back as result.
    */
   public float[] test(float... inputValues) {
+    return test(inputValues, new float[layers.get(layers.size() - 1).countNeurons()]);
+  }
+
+  /**
+   * Propagate new or learned input values (normalized between 0 and 1) through a (un)trained
+   * neural network and writes the predicted output values into the given array.<br/>
+   * Reuse your arrays between calls and this method will not allocate anything. The network itself
+   * holds the values of every layer, so one network can only be used by one thread at a time.
+   *
+   * @param outputValues requires the exact same size as number of output neurons!
+   * @return the given outputValues
+   */
+  public float[] test(float[] inputValues, float[] outputValues) {
+    Layer outputLayer = layers.get(layers.size() - 1);
+    if (outputValues == null || outputValues.length != outputLayer.countNeurons()) {
+      throw new IllegalArgumentException("outputValues must be the same count as output neurons");
+    }
+
+    propagate(inputValues);
+    outputLayer.readOutputs(outputValues);
+    return outputValues;
+  }
+
+  /**
+   * Propagates a batch of input rows (normalized between 0 and 1) through the network and returns the predicted
+   * output rows. See {@link #testBatch(float[], int, float[])}.
+   */
+  public float[][] testBatch(float[][] inputValues) {
+    int inputs = layers.get(0).countNeurons();
+    int outputs = layers.get(layers.size() - 1).countNeurons();
+    float[] flatInputs = new float[inputValues.length * inputs];
+    for (int r = 0; r < inputValues.length; r++) {
+      if (inputValues[r] == null || inputValues[r].length != inputs) {
+        throw new IllegalArgumentException(format("inputValues of row {0} must be the same count", r));
+      }
+      System.arraycopy(inputValues[r], 0, flatInputs, r * inputs, inputs);
+    }
+
+    float[] flatOutputs = testBatch(flatInputs, inputValues.length);
+    float[][] outputValues = new float[inputValues.length][];
+    for (int r = 0; r < inputValues.length; r++) {
+      outputValues[r] = Arrays.copyOfRange(flatOutputs, r * outputs, (r + 1) * outputs);
+    }
+    return outputValues;
+  }
+
+  /**
+   * Propagates a batch of input rows (normalized between 0 and 1) through the network and returns the predicted
+   * output rows in one flat array. See {@link #testBatch(float[], int, float[])}.
+   */
+  public float[] testBatch(float[] inputValues, int rows) {
+    return testBatch(inputValues, rows, new float[rows * layers.get(layers.size() - 1).countNeurons()]);
+  }
+
+  /**
+   * Propagates a batch of input rows (normalized between 0 and 1) through the network and writes the predicted
+   * output rows into the given array. Rows are laid out one after another: inputValues holds rows x input neurons
+   * values, outputValues receives rows x output neurons values.<br/>
+   * Each layer handles the whole batch as one matrix-matrix product, which is a lot faster than a loop over
+   * {@link #test(float[], float[])}. The values held by the layers are not changed, so multiple threads can test
+   * batches on one network at the same time, as long as it is not trained meanwhile.
+   *
+   * @return the given outputValues
+   */
+  public float[] testBatch(float[] inputValues, int rows, float[] outputValues) {
+    int inputs = layers.get(0).countNeurons();
+    int outputs = layers.get(layers.size() - 1).countNeurons();
+    if (rows < 0) {
+      throw new IllegalArgumentException("rows must be positive or 0 (zero)!");
+    }
+    if (inputValues == null || inputValues.length != rows * inputs) {
+      throw new IllegalArgumentException("inputValues must be the same count as rows x input neurons");
+    }
+    if (outputValues == null || outputValues.length != rows * outputs) {
+      throw new IllegalArgumentException("outputValues must be the same count as rows x output neurons");
+    }
+    for (float value : inputValues) {
+      InputNeuron.requireNormalized(value);
+    }
+
+    // hidden layers pass their rows between two buffers, the output layer writes into the result
+    int width = 0;
+    for (int i = 1; i < layers.size() - 1; i++) {
+      width = Math.max(width, layers.get(i).countNeurons());
+    }
+    float[] current = width > 0 ? new float[rows * width] : null;
+    float[] next = layers.size() > 3 ? new float[rows * width] : null;
+
+    float[] input = inputValues;
+    for (int i = 1; i < layers.size() - 1; i++) {
+      layers.get(i).propagate(input, current, rows);
+      input = current;
+      current = next;
+      next = input;
+    }
+    layers.get(layers.size() - 1).propagate(input, outputValues, rows);
+    return outputValues;
+  }
+
+  /**
+   * Creates an immutable, inference-only snapshot of the current weights and biases. One compiled network can be
+   * tested by many threads at the same time, unlike this network.
+   */
+  public CompiledNetwork compile() {
+    return new CompiledNetwork(this);
+  }
 
+  /**
+   * Creates an immutable, inference-only snapshot like {@link #compile()}, but with the weights stored as 8 bit
+   * integers or half precision floats. Compare its precision with {@link QuantizationReport}.
+   */
+  public QuantizedNetwork quantize(Quantization quantization) {
+    if (quantization == null) {
+      throw new IllegalArgumentException("Your quantization may not be null!");
+    }
+    return new QuantizedNetwork(this, quantization);
+  }
+
+  private void propagate(float[] inputValues) {
     Layer inputLayer = layers.get(0);
     if (inputValues == null || inputValues.length != inputLayer.countNeurons()) {
       throw new IllegalArgumentException("inputValues must be the same count");
     }
 
-    List<Neuron> neurons = Layer.getNeurons(inputLayer);
-    for (int i = 0; i < neurons.size(); i++) {
-      InputNeuron neuron = (InputNeuron) neurons.get(i);
-      neuron.setInputValue(inputValues[i]);
+    inputLayer.setInputValues(inputValues);
+    for (int i = 1; i < layers.size(); i++) {
+      layers.get(i).propagate();
     }
-    layers.stream()
-      .filter(l -> l.getType() != NeuronType.INPUT)
-      .forEach(Layer::propagate);
-
-    int lastLayerInput = layers.size() - 1;
-    return layers.get(lastLayerInput).getOutputs();
   }
 
   /**
@@ -142,12 +280,25 @@ public final class NeuralNetwork {
    *                          output to be zero then? then use {@code true} for this value.
    */
   public void build(int inputs, int hiddenLayersCount, int hiddenNeurons, int outputNeurons, boolean outputSoftmax) {
+    build(inputs, hiddenLayersCount, hiddenNeurons, outputNeurons, outputSoftmax, storage);
+  }
+
+  /**
+   * Describes this network like {@link #build(int, int, int, int, boolean)} and keeps weights, biases and their
+   * deltas in the given storage. Use {@link ParameterStorage#OFF_HEAP} for very large networks.
+   */
+  public void build(int inputs, int hiddenLayersCount, int hiddenNeurons, int outputNeurons, boolean outputSoftmax,
+                    ParameterStorage storage) {
+    this.storage = Objects.requireNonNull(storage, "storage");
+    closeParallelTrainer();
 
     Layer parentLayer = createLayer("input", inputs, NeuronType.INPUT, false);
     for (int i = 0; i < hiddenLayersCount; i++) {
-      parentLayer = createLayer("hidden", hiddenNeurons, NeuronType.HIDDEN, false).bindFullMesh(parentLayer);
+      parentLayer = createLayer("hidden", hiddenNeurons, NeuronType.HIDDEN, false)
+        .bindFullMesh(parentLayer, weightInitializer, random.split());
     }
-    createLayer("output", outputNeurons, NeuronType.OUTPUT, outputSoftmax).bindFullMesh(parentLayer);
+    createLayer("output", outputNeurons, NeuronType.OUTPUT, outputSoftmax)
+      .bindFullMesh(parentLayer, weightInitializer, random.split());
 
     layers.forEach(l -> l.setBiases(biasAll));
   }
@@ -179,13 +330,168 @@ public final class NeuralNetwork {
   }
 
   /**
-   * Rebuilds yourneural network based on memory data (propably from a file)
+   * Rebuilds yourneural network based on memory data (propably from a file) and copies its weights and biases
+   * into the layers, if given. If the network already has the same shape, nothing is rebuilt and only the
+   * weights and biases are replaced. Use this to swap the memory of a running network.
    */
   public void loadMemory(MemoryData data) {
+    reshape(data.inputs, data.hiddenLayers, data.hiddenNeurons, data.outputs, data.softMaxUsed);
+    this.name = data.networkName;
     this.generations = data.generations;
-    this.layers.clear();
-    build(data.inputs, data.hiddenLayers, data.hiddenNeurons, data.outputs, data.softMaxUsed);
-    bindLayerNeuronsFullMesh(this.layers);
+    this.learningGradient = data.learningGradient;
+    for (int l = 0; l < layers.size(); l++) {
+      if (data.weights != null && l < data.weights.size() && data.weights.get(l) != null) {
+        layers.get(l).readWeights(data.weights.get(l));
+      }
+      if (data.biases != null && l < data.biases.size() && data.biases.get(l) != null) {
+        layers.get(l).readBiases(data.biases.get(l));
+      }
+    }
+  }
+
+  /**
+   * Replaces weights and biases by the ones of a network with the same shape, without rebuilding anything.
+   * Use this to swap the memory of a running network.
+   *
+   * @throws IllegalArgumentException the other network has another shape
+   */
+  public void loadMemory(NeuralNetwork other) throws IllegalArgumentException {
+    if (layers.isEmpty() || !other.hasShape(layers.get(0).countNeurons(), layers.size() - 2,
+      layers.size() > 2 ? layers.get(1).countNeurons() : 0, layers.get(layers.size() - 1).countNeurons(),
+      isOutputSoftmax())) {
+      throw new IllegalArgumentException("Cannot load memory of a network with another shape!");
+    }
+    copyParametersFrom(other);
+    this.generations = other.generations;
+    this.learningGradient = other.learningGradient;
+  }
+
+  /**
+   * Rebuilds your neural network from a stream of json data for {@link MemoryData}, including its weights and biases.
+   * The numbers are read one by one into the layers, without a {@link MemoryData} object in between.
+   * The stream will not be closed.
+   */
+  public void loadMemoryDataFromJson(InputStream jsonMemoryData) {
+    try {
+      MemoryDataJson.read(this, jsonMemoryData);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Rebuilds the topology of {@link MemoryData} and copies weights and biases per layer into it, if given
+   *
+   * @param weights null or row-major weights for each layer, starting at the input layer
+   * @param biases  null or biases for each layer, starting at the input layer
+   */
+  void restore(MemoryData data, float[][] weights, float[][] biases) {
+    reshape(data.inputs, data.hiddenLayers, data.hiddenNeurons, data.outputs, data.softMaxUsed);
+    this.name = data.networkName;
+    this.generations = data.generations;
+    this.learningGradient = data.learningGradient;
+    for (int l = 0; l < layers.size(); l++) {
+      if (weights != null && l < weights.length && weights[l] != null) {
+        layers.get(l).readWeights(FloatBuffer.wrap(weights[l]));
+      }
+      if (biases != null && l < biases.length && biases[l] != null) {
+        layers.get(l).readBiases(FloatBuffer.wrap(biases[l]));
+      }
+    }
+  }
+
+  /**
+   * Removes any layer and builds the network again, see {@link #build(int, int, int, int, boolean)}.
+   * Keeps the layers, if the network already has this shape.
+   */
+  void reshape(int inputs, int hiddenLayersCount, int hiddenNeurons, int outputNeurons, boolean outputSoftmax) {
+    if (!hasShape(inputs, hiddenLayersCount, hiddenNeurons, outputNeurons, outputSoftmax)) {
+      this.layers.clear();
+      build(inputs, hiddenLayersCount, hiddenNeurons, outputNeurons, outputSoftmax);
+    }
+  }
+
+  private boolean hasShape(int inputs, int hiddenLayersCount, int hiddenNeurons, int outputNeurons,
+                           boolean outputSoftmax) {
+    if (layers.size() != hiddenLayersCount + 2
+      || layers.get(0).countNeurons() != inputs
+      || layers.get(layers.size() - 1).countNeurons() != outputNeurons
+      || isOutputSoftmax() != outputSoftmax) {
+      return false;
+    }
+    for (int l = 1; l <= hiddenLayersCount; l++) {
+      if (layers.get(l).countNeurons() != hiddenNeurons) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Rebuilds your neural network from a binary file written by {@link #saveToFile(Path)}.
+   * The weights and biases are copied at once out of the mapped file. A network stored
+   * {@link ParameterStorage#OFF_HEAP} uses the mapped file itself, see {@link #loadFromFile(Path, ParameterStorage)}.
+   */
+  public void loadFromFile(Path file) {
+    try {
+      BinaryModelFile.read(this, file);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Rebuilds your neural network from a binary file into the given storage.<br/>
+   * {@link ParameterStorage#OFF_HEAP} does not copy weights and biases, the layers work on a private mapping of
+   * the file. Training changes only this mapping and not the file, but do not overwrite or truncate the file,
+   * while the network uses it. The file needs to be writable for a private mapping.
+   */
+  public void loadFromFile(Path file, ParameterStorage storage) {
+    if (this.storage != Objects.requireNonNull(storage, "storage")) {
+      this.storage = storage;
+      this.layers.clear();
+    }
+    loadFromFile(file);
+  }
+
+  /**
+   * Returns where weights, biases and their deltas are kept
+   */
+  public ParameterStorage getStorage() {
+    return storage;
+  }
+
+  /**
+   * Returns {@code false} while the network is rebuilt for parameters, which get mapped from a file afterwards
+   */
+  boolean isAllocatingParameters() {
+    return allocatingParameters;
+  }
+
+  /**
+   * Like {@link #reshape(int, int, int, int, boolean)}, but new layers get no memory for weights and biases. Each
+   * layer needs to be mapped by {@link Layer#mapParameters(FloatBuffer)} afterwards.
+   */
+  void reshapeForMapping(int inputs, int hiddenLayersCount, int hiddenNeurons, int outputNeurons,
+                         boolean outputSoftmax) {
+    allocatingParameters = false;
+    try {
+      reshape(inputs, hiddenLayersCount, hiddenNeurons, outputNeurons, outputSoftmax);
+    } finally {
+      allocatingParameters = true;
+    }
+  }
+
+  /**
+   * Writes topology, activation functions, weights and biases into a compact binary file.
+   * Use {@link #loadFromFile(Path)} to restore it.
+   */
+  public void saveToFile(Path file) {
+    try {
+      BinaryModelFile.write(this, file);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
   }
 
   /**
@@ -196,10 +502,8 @@ public final class NeuralNetwork {
     data.inputs = layers.get(0).countNeurons();
     data.outputs = layers.get(layers.size() - 1).countNeurons();
     data.hiddenLayers = layers.size() - 2;
-    data.hiddenNeurons = layers.stream()
-      .skip(1).limit(data.hiddenLayers)
-      .mapToInt(Layer::countNeurons)
-      .sum();
+    data.hiddenNeurons = data.hiddenLayers > 0 ? layers.get(1).countNeurons() : 0;
+    data.softMaxUsed = isOutputSoftmax();
 
     data.weights = layers.stream().map(Layer::getWeights).collect(toList());
     data.biases = layers.stream().map(Layer::getBiases).collect(toList());
@@ -209,6 +513,28 @@ public final class NeuralNetwork {
     return data;
   }
 
+  /**
+   * Returns the number of generations this network was trained
+   */
+  public long getGenerations() {
+    return generations;
+  }
+
+  void setGenerations(long generations) {
+    this.generations = generations;
+  }
+
+  void setLearningGradient(float learningGradient) {
+    this.learningGradient = learningGradient;
+  }
+
+  /**
+   * Returns the layers, the input layer first and the output layer last
+   */
+  List<Layer> getLayers() {
+    return layers;
+  }
+
   /**
    * Returns a custom name to identify the network use cases
    */
@@ -245,19 +571,25 @@ public final class NeuralNetwork {
   }
 
   /**
-   * Meshes the entire neural network layer neurons to parent layer neurons as full-mesh
+   * Writes {@link MemoryData} of this network as json into a stream. The weights and biases are written one by one
+   * out of the layers, without a {@link MemoryData} object in between. The stream will not be closed.
    */
-  private void bindLayerNeuronsFullMesh(List<Layer> layers) {
-    Layer parentLayer = null;
-    for (Layer layer : layers) {
-      if (parentLayer != null) {
-        parentLayer = layer.bindFullMesh(parentLayer);
-      } else {
-        parentLayer = layer;
-      }
+  public void saveToJson(OutputStream out) {
+    try {
+      MemoryDataJson.write(this, out);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
     }
   }
 
+  /**
+   * Returns {@code true}, if the output layer uses softmax activation
+   */
+  boolean isOutputSoftmax() {
+    Layer outputLayer = layers.get(layers.size() - 1);
+    return Layer.getNeurons(outputLayer).get(0).getActivation() instanceof SoftMaxActivation;
+  }
+
   /**
    * Replaces a particular weight in a input binding. You need to know how your network is sculpt.
    */
@@ -270,46 +602,242 @@ public final class NeuralNetwork {
     binding.setWeight(weightToSet);
   }
 
+  /**
+   * Returns a layer by its position, the input layer is at index 0 (zero)
+   */
+  @ForTest
+  Layer getLayer(int layerIndex) {
+    return layers.get(layerIndex);
+  }
+
   /**
    * One roundabout for a learning process. Tell the net, what it is to learn.
    * Use {@link #evolute} to learn multiple generations, instead.
+   * Weights and biases are adjusted after every {@link TrainingSession#batchSize} test units.
+   * With more than one {@link TrainingSession#threads} each batch is split between worker threads.
+   * Loss and throughput are reported to the {@link TrainingSession#listener}.
    */
   @SuppressWarnings("WeakerAccess")
   public void train(TrainingSession session, float learningGradient) {
+    TrainingDataSource source = getTrainingSource(session);
+    try (PrefetchingDataSource prefetching = prefetch(session, source)) {
+      train(session, learningGradient, prefetching != null ? prefetching : source);
+    }
+  }
+
+  /**
+   * Returns the source of the test units of a session, after checking its training settings
+   */
+  private static TrainingDataSource getTrainingSource(TrainingSession session) {
+    if (session.batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be 1 or greater!");
+    }
+    if (session.threads < 1) {
+      throw new IllegalArgumentException("threads must be 1 or greater!");
+    }
+    return session.source != null ? session.source : new ListDataSource(session.tests);
+  }
+
+  /**
+   * Reads the batches of the source ahead, if the session wants to (see {@link TrainingSession#prefetchBatches})
+   *
+   * @return {@code null}, if the batches are read right before they are learned
+   */
+  private static PrefetchingDataSource prefetch(TrainingSession session, TrainingDataSource source) {
+    return session.prefetchBatches > 0
+      ? new PrefetchingDataSource(source, session.batchSize, session.prefetchBatches)
+      : null;
+  }
+
+  /**
+   * Trains one generation on the units of the source
+   */
+  private void train(TrainingSession session, float learningGradient, TrainingDataSource source) {
     this.learningGradient = learningGradient;
     this.generations++;
 
-    Layer outputLayer = layers.get(layers.size() - 1);
+    ParallelTrainer trainer = null;
+    if (session.threads > 1) {
+      if (parallelTrainer == null || parallelTrainer.getThreads() != session.threads) {
+        closeParallelTrainer();
+        parallelTrainer = new ParallelTrainer(this, session.threads);
+      }
+      trainer = parallelTrainer;
+    }
+
+    // progress is only measured for a listener, which wants to know it
+    TrainingProgress progress = session.isReporting() ? new TrainingProgress() : null;
+    long start = progress != null ? System.nanoTime() : 0;
+    loss.reset();
 
-    for (TestUnit test : session.tests) {
-      // this is, what the network thinks might be correct as prediction / guess
-      this.test(test.inputValues);
+    List<TestUnit> batch = new ArrayList<>(session.batchSize);
+    TestUnit[] reused = new TestUnit[session.batchSize];
+    try {
+      source.rewind();
+      for (int batchIndex = 0; (batch = nextBatch(source, batch, reused)) != null; batchIndex++) {
+        long batchStart = progress != null ? System.nanoTime() : 0;
+        double lossBefore = loss.getLossSum();
+        if (trainer != null) {
+          trainer.learn(batch);
+        } else {
+          for (TestUnit test : batch) {
+            learn(test);
+          }
+        }
 
-      // back pass a step to evolute the network weights -> long for "magic"
-      // routine for output layer
-      outputLayer.updateError(test.desiredValues);
+        // accept errors fixing once per batch
+        // perform back propagation
+        applyDeltas(learningGradient, batch.size());
 
-      // routine for hidden layer
-      // update error in last to first hidden layer
-      // retrieve data for error from output layer to second hidden layer)
-      for (int i = layers.size() - 2; i > 0; i--) {
-        layers.get(i).updateErrors();
+        if (progress != null) {
+          long now = System.nanoTime();
+          progress.generation = generations;
+          progress.batch = batchIndex;
+          progress.batchUnits = batch.size();
+          progress.batchLoss = (float) ((loss.getLossSum() - lossBefore) / batch.size());
+          progress.batchNanos = now - batchStart;
+          progress.units = loss.getUnits();
+          progress.loss = loss.getLoss();
+          progress.meanSquaredError = loss.getMeanSquaredError();
+          progress.crossEntropy = loss.getCrossEntropy();
+          progress.elapsedNanos = now - start;
+          session.notifyBatchDone(progress);
+        }
       }
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+
+    // the mean loss of all units decides about a training stop
+    totalError = loss.getLoss();
+    session.totalError = totalError;
+    session.notifyTrainingGenerationDone(this, progress);
+  }
+
+  /**
+   * Stops the worker threads of the parallel trainer, a new one is created by the next parallel training
+   */
+  private void closeParallelTrainer() {
+    if (parallelTrainer != null) {
+      parallelTrainer.close();
+      parallelTrainer = null;
+    }
+  }
 
-      // accept errors fixing (gradient descent)
-      // perform back propagation
-      for (int i = layers.size() - 1; i > 0; i--) {
-        layers.get(i).applyDeltas(learningGradient);
+  /**
+   * Reads the next batch of test units out of the source into the reused units. A prefetching source with chunks of
+   * the batch size hands out its filled chunk as the batch, without copying the units again.
+   *
+   * @return {@code null}, if the generation has no more test units
+   */
+  private static List<TestUnit> nextBatch(TrainingDataSource source, List<TestUnit> batch, TestUnit[] reused) {
+    try {
+      if (source instanceof PrefetchingDataSource
+        && ((PrefetchingDataSource) source).getChunkSize() == reused.length) {
+        return ((PrefetchingDataSource) source).nextChunk();
       }
+      batch.clear();
+      for (int u = 0; u < reused.length; u++) {
+        if (reused[u] == null) {
+          reused[u] = new TestUnit();
+        }
+        TestUnit unit = source.next(reused[u]);
+        if (unit == null) {
+          break;
+        }
+        batch.add(unit);
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    return !batch.isEmpty() ? batch : null;
+  }
+
+  /**
+   * Propagates a test unit forward and its error backward, then collects the deltas for its weights and biases
+   * without applying them. The loss of the test unit is added to the {@link #getLossTracker() loss tracker}.
+   */
+  void learn(TestUnit test) {
+    // this is, what the network thinks might be correct as prediction / guess
+    propagate(test.inputValues);
+
+    // back pass a step to evolute the network weights -> long for "magic"
+    // routine for output layer
+    layers.get(layers.size() - 1).updateError(test.desiredValues);
 
-      totalError = getTotalError(test.desiredValues);
-      float value = totalError;
-      String data = String.format(": total error: %.4f", value);
-      System.out.println("#" + generations + data);
-      session.totalError = totalError;
+    // routine for hidden layer
+    // update error in last to first hidden layer
+    // retrieve data for error from output layer to second hidden layer)
+    for (int i = layers.size() - 2; i > 0; i--) {
+      layers.get(i).updateErrors();
     }
 
-    session.notifyTrainingGenerationDone(this);
+    // collect errors fixing (gradient descent)
+    for (int i = layers.size() - 1; i > 0; i--) {
+      layers.get(i).accumulateDeltas();
+    }
+    loss.add(layers.get(layers.size() - 1), test.desiredValues);
+  }
+
+  /**
+   * Returns the loss of the test units learned since the last training generation started
+   */
+  LossTracker getLossTracker() {
+    return loss;
+  }
+
+  private void applyDeltas(float learningGradient, int units) {
+    optimizerSteps++;
+    for (int i = layers.size() - 1; i > 0; i--) {
+      layers.get(i).applyDeltas(optimizer, learningGradient, units, optimizerSteps);
+    }
+  }
+
+  /**
+   * Creates a network of the same shape, activations, weights and biases. Used as worker copy during training.
+   */
+  NeuralNetwork replicate() {
+    NeuralNetwork replica = new NeuralNetwork();
+    replica.name = name;
+    replica.biasAll = biasAll;
+    replica.storage = storage;
+    replica.weightInitializer = weightInitializer;
+    int hiddenLayers = layers.size() - 2;
+    int hiddenNeurons = hiddenLayers > 0 ? layers.get(1).countNeurons() : 0;
+    Layer outputLayer = layers.get(layers.size() - 1);
+    replica.build(layers.get(0).countNeurons(), hiddenLayers, hiddenNeurons, outputLayer.countNeurons(),
+      isOutputSoftmax());
+
+    for (int l = 0; l < layers.size(); l++) {
+      List<Neuron> neurons = Layer.getNeurons(layers.get(l));
+      List<Neuron> replicaNeurons = Layer.getNeurons(replica.layers.get(l));
+      for (int n = 0; n < neurons.size(); n++) {
+        IActivationFunction activation = neurons.get(n).getActivation();
+        if (!(activation instanceof SoftMaxActivation)) {
+          replicaNeurons.get(n).setActivation(activation);
+        }
+      }
+    }
+    replica.copyParametersFrom(this);
+    return replica;
+  }
+
+  /**
+   * Overwrites weights and biases by the ones of a network with the same shape
+   */
+  void copyParametersFrom(NeuralNetwork other) {
+    for (int l = 1; l < layers.size(); l++) {
+      layers.get(l).copyParametersFrom(other.layers.get(l));
+    }
+  }
+
+  /**
+   * Adds the collected deltas of a network with the same shape to the deltas in here and resets them in the other
+   */
+  void takeDeltas(NeuralNetwork other) {
+    for (int l = 1; l < layers.size(); l++) {
+      layers.get(l).takeDeltas(other.layers.get(l));
+    }
   }
 
   /**
@@ -334,7 +862,10 @@ public final class NeuralNetwork {
   }
 
   /**
-   * Evolutes a brain of an amount of generations or "till infinity"
+   * Evolutes a brain of an amount of generations or "till infinity".<br/>
+   * The session may change the learning gradient each generation (see {@link TrainingSession#learningRateSchedule})
+   * and stop early: at a tolerant total error, after a plateau of the (validation) loss longer than
+   * {@link TrainingSession#patience} or after {@link TrainingSession#maxMillis}.
    *
    * @return returns the generations run (not of all time)
    * @throws IllegalArgumentException You will gen an error, if you try to set generationsMaximum smaller than zero.
@@ -346,20 +877,124 @@ public final class NeuralNetwork {
 
     int gen = 0;
     boolean untilEndOfLife = Objects.equals(generationsMaximum, GENERATIONS_MAX);
-    do {
-      train(session, learningGradient);
+    long start = System.nanoTime();
+    ILearningRateSchedule schedule = session.learningRateSchedule != null
+      ? session.learningRateSchedule
+      : ILearningRateSchedule.CONSTANT;
+    TrainingDataSource validation = null;
+    if (session.isValidating()) {
+      validation = session.validationSource != null
+        ? session.validationSource
+        : new ListDataSource(session.validationTests);
+    }
+    if (!resumed) {
+      evolution.reset();
+    }
+    resumed = false;
+    TrainingDataSource source = getTrainingSource(session);
+    // one prefetching thread for all generations, a failing close is added to a failing generation as suppressed
+    try (PrefetchingDataSource prefetching = prefetch(session, source);
+         CheckpointWriter checkpoints = session.checkpointFile != null && session.checkpointGenerations > 0
+           ? new CheckpointWriter()
+           : null) {
+      do {
+        int generation = (int) Math.min(generations, Integer.MAX_VALUE);
+        train(session, schedule.getLearningGradient(learningGradient, generation, evolution.loss),
+          prefetching != null ? prefetching : source);
+        evolution.loss = totalError;
+        if (validation != null) {
+          session.validationError = validate(validation);
+          evolution.loss = session.validationError;
+        }
 
-      if (session.trainingStopDefinition != null && session.trainingStopDefinition.isTolerantTotalError(totalError)) {
-        break;
-      }
+        ITrainingStop trainingStop = session.trainingStopDefinition;
+        if (trainingStop != null && trainingStop.isTolerantTotalError(totalError)) {
+          break;
+        }
 
-      // .. do output here, if you want ..
+        // .. do output here, if you want ..
 
-      gen++;
-    } while (untilEndOfLife || gen <= generationsMaximum);
+        gen++;
+        boolean plateau = false;
+        if (session.patience > 0) {
+          if (evolution.loss < evolution.bestLoss - session.minImprovement) {
+            evolution.bestLoss = evolution.loss;
+            evolution.generationsWithoutImprovement = 0;
+          } else {
+            plateau = ++evolution.generationsWithoutImprovement >= session.patience;
+          }
+        }
+        if (checkpoints != null && gen % session.checkpointGenerations == 0) {
+          evolution.scheduleState = schedule.getState();
+          checkpoints.write(this, getShuffleEpoch(session), evolution, session.checkpointFile);
+        }
+        if (plateau) {
+          break;
+        }
+        if (session.maxMillis > 0 && System.nanoTime() - start >= session.maxMillis * 1_000_000L) {
+          break;
+        }
+      } while (untilEndOfLife || gen <= generationsMaximum);
+    }
     return gen;
   }
 
+  /**
+   * Continues a training from the checkpoint of the session, see {@link TrainingSession#checkpointFile}. Restores
+   * topology, weights, biases, generations and the states of the optimizer, and continues the shuffled order of the
+   * {@link TrainingSession#source}. The next call of evolute continues the learning rate schedule and the patience
+   * of the checkpoint. Select the optimizer and the schedule of the training before.
+   *
+   * @return {@code false}, if there is no checkpoint yet
+   */
+  public boolean resume(TrainingSession session) {
+    if (session.checkpointFile == null) {
+      throw new IllegalArgumentException("Your session has no checkpoint file!");
+    }
+    if (!Files.exists(session.checkpointFile)) {
+      return false;
+    }
+    try {
+      long epoch = BinaryModelFile.read(this, session.checkpointFile, true);
+      if (epoch >= 0 && session.source instanceof RandomAccessDataSource) {
+        ((RandomAccessDataSource) session.source).setEpoch(epoch);
+      }
+      if (session.learningRateSchedule != null && evolution.scheduleState.length > 0) {
+        session.learningRateSchedule.setState(evolution.scheduleState);
+      }
+      resumed = true;
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    return true;
+  }
+
+  private static long getShuffleEpoch(TrainingSession session) {
+    return session.source instanceof RandomAccessDataSource
+      ? ((RandomAccessDataSource) session.source).getEpoch()
+      : -1;
+  }
+
+  /**
+   * Tests the units of a source without learning them and returns their mean loss: the mean squared error, or the
+   * cross-entropy for a softmax output layer
+   */
+  public float validate(TrainingDataSource source) {
+    LossTracker validationLoss = new LossTracker();
+    Layer outputLayer = layers.get(layers.size() - 1);
+    try {
+      source.rewind();
+      TestUnit reused = new TestUnit();
+      for (TestUnit unit = source.next(reused); unit != null; unit = source.next(reused)) {
+        propagate(unit.inputValues);
+        validationLoss.add(outputLayer, unit.desiredValues);
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    return validationLoss.getLoss();
+  }
+
   public Layer findChildLayer(Layer layer) {
     for (int i = 0; i < layers.size(); i++) {
       Layer other = layers.get(i);
@@ -373,4 +1008,53 @@ public final class NeuralNetwork {
   public void setBiasInitialValues(float biasAll) {
     this.biasAll = biasAll;
   }
+
+  /**
+   * Selects how the weights are set by the next {@link #build(int, int, int, int, boolean)}, default is
+   * {@link IWeightInitializer#UNIFORM}
+   */
+  public void setWeightInitializer(IWeightInitializer weightInitializer) {
+    this.weightInitializer = Objects.requireNonNull(weightInitializer, "weightInitializer");
+  }
+
+  /**
+   * Selects how weights and biases are adjusted by the deltas of each batch, default is {@link IOptimizer#SGD}.
+   * The learning gradient of {@link #train(TrainingSession, float)} is its learning rate. Selecting an optimizer
+   * starts its states (like the momentum) again at 0 (zero).
+   */
+  public void setOptimizer(IOptimizer optimizer) {
+    this.optimizer = Objects.requireNonNull(optimizer, "optimizer");
+    this.optimizerSteps = 0;
+    layers.forEach(Layer::clearStates);
+  }
+
+  public IOptimizer getOptimizer() {
+    return optimizer;
+  }
+
+  /**
+   * Returns the number of updates done by the optimizer since it was selected
+   */
+  long getOptimizerSteps() {
+    return optimizerSteps;
+  }
+
+  void setOptimizerSteps(long optimizerSteps) {
+    this.optimizerSteps = optimizerSteps;
+  }
+
+  /**
+   * Returns the state of evolute between two generations, restored by {@link #resume(TrainingSession)}
+   */
+  EvolutionState getEvolution() {
+    return evolution;
+  }
+
+  /**
+   * Seeds the random weights of the next {@link #build(int, int, int, int, boolean)}. Two networks of the same seed,
+   * shape and {@link IWeightInitializer} get the same weights. Without a seed each build gets other weights.
+   */
+  public void setSeed(long seed) {
+    this.random = new SplittableRandom(seed);
+  }
 }
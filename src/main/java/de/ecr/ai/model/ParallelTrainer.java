@@ -0,0 +1,118 @@
+package de.ecr.ai.model;
+
+import de.ecr.ai.model.test.TestUnit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Trains a {@link NeuralNetwork} on multiple cores. Each batch of {@link TestUnit}s is split into one shard per
+ * worker thread. A worker propagates forward and backward on its own replica of the network and collects the deltas
+ * for weights and biases. The deltas are summed up in a fixed tree order, so a training result only depends on
+ * the number of threads and not on the scheduling of them.<br/>
+ * Close a trainer, which is not used anymore, to stop its worker threads.
+ *
+ * @author Bjoern Frohberg
+ */
+final class ParallelTrainer implements AutoCloseable {
+
+  private final NeuralNetwork network;
+  private final NeuralNetwork[] replicas;
+  private final ForkJoinPool pool;
+
+  ParallelTrainer(NeuralNetwork network, int threads) {
+    this.network = network;
+    this.replicas = new NeuralNetwork[threads];
+    for (int i = 0; i < threads; i++) {
+      replicas[i] = network.replicate();
+    }
+    this.pool = new ForkJoinPool(threads);
+  }
+
+  /**
+   * Returns the number of worker threads
+   */
+  int getThreads() {
+    return replicas.length;
+  }
+
+  /**
+   * Shuts the worker threads down, after their tasks are done
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * Learns a batch of test units and collects their deltas and loss in the network. The deltas need to be applied
+   * afterwards.
+   */
+  void learn(List<TestUnit> batch) {
+    int shards = Math.min(replicas.length, batch.size());
+    List<Callable<Void>> tasks = new ArrayList<>(shards);
+    for (int s = 0; s < shards; s++) {
+      NeuralNetwork replica = replicas[s];
+      int from = s * batch.size() / shards;
+      int to = (s + 1) * batch.size() / shards;
+      tasks.add(() -> {
+        replica.copyParametersFrom(network);
+        for (int u = from; u < to; u++) {
+          replica.learn(batch.get(u));
+        }
+        return null;
+      });
+    }
+
+    try {
+      for (Future<Void> result : pool.invokeAll(tasks)) {
+        result.get();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    } catch (ExecutionException ex) {
+      throw new RuntimeException(ex.getCause());
+    }
+
+    // loss is summed up in order of the shards, like the deltas
+    for (int s = 0; s < shards; s++) {
+      LossTracker replicaLoss = replicas[s].getLossTracker();
+      network.getLossTracker().add(replicaLoss);
+      replicaLoss.reset();
+    }
+    pool.invoke(new Reduction(0, shards));
+    network.takeDeltas(replicas[0]);
+  }
+
+  /**
+   * Sums the deltas of the replicas [from, to) into the replica at from, splitting the range in halves
+   */
+  private final class Reduction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+
+    Reduction(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from < 2) {
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new Reduction(from, middle), new Reduction(middle, to));
+      replicas[from].takeDeltas(replicas[middle]);
+    }
+  }
+}
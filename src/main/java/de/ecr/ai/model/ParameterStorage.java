@@ -0,0 +1,46 @@
+package de.ecr.ai.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Where a {@link NeuralNetwork} keeps the weights, biases and their deltas of its layers. Select it with
+ * {@link NeuralNetwork#build(int, int, int, int, boolean, ParameterStorage)} or
+ * {@link NeuralNetwork#loadFromFile(java.nio.file.Path, ParameterStorage)}.
+ *
+ * @author Bjoern Frohberg
+ */
+public enum ParameterStorage {
+
+  /**
+   * In float arrays on the Java heap. This is the default and the fastest for small and medium networks.
+   */
+  HEAP {
+    @Override
+    FloatBuffer allocate(int size) {
+      return FloatBuffer.wrap(new float[size]);
+    }
+  },
+
+  /**
+   * In direct buffers outside the Java heap, so very large networks neither fill the heap nor slow down the
+   * garbage collector. A network loaded from a file maps the file instead of copying it.
+   */
+  OFF_HEAP {
+    @Override
+    FloatBuffer allocate(int size) {
+      if ((long) size * Float.BYTES > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException(format("{0} floats do not fit into one buffer!", size));
+      }
+      return ByteBuffer.allocateDirect(size * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+  };
+
+  /**
+   * Allocates a buffer of the given number of floats, all 0 (zero)
+   */
+  abstract FloatBuffer allocate(int size);
+}
@@ -0,0 +1,26 @@
+package de.ecr.ai.model;
+
+/**
+ * How {@link NeuralNetwork#quantize(Quantization)} stores the weights of a {@link QuantizedNetwork}. Biases stay
+ * floats.
+ *
+ * @author Bjoern Frohberg
+ */
+public enum Quantization {
+
+  /**
+   * Symmetric 8 bit integers with one float scale per layer, a quarter of the memory of floats
+   */
+  INT8_PER_LAYER,
+
+  /**
+   * Symmetric 8 bit integers with one float scale per neuron (row of the weight matrix). Needs a little more memory
+   * than {@link #INT8_PER_LAYER}, but keeps the precision of neurons with small weights.
+   */
+  INT8_PER_ROW,
+
+  /**
+   * Half precision floats (IEEE 754 binary16), half of the memory of floats
+   */
+  FLOAT16
+}
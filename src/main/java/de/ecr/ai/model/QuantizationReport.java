@@ -0,0 +1,151 @@
+package de.ecr.ai.model;
+
+import de.ecr.ai.model.test.ListDataSource;
+import de.ecr.ai.model.test.TestUnit;
+import de.ecr.ai.model.test.TrainingDataSource;
+import de.ecr.ai.model.test.TrainingSession;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the outputs of a {@link QuantizedNetwork} with the outputs of the {@link NeuralNetwork} it was quantized
+ * from, over the units of a {@link TrainingSession}. Use it to decide, if a quantization is precise enough.<br/>
+ * The loss is the mean squared error, for a softmax output layer it is the cross-entropy. A unit is correct, if the
+ * output with the highest value is the desired one (for a single output: if the rounded output is the desired one).
+ *
+ * @author Bjoern Frohberg
+ */
+public final class QuantizationReport {
+
+  public int units;
+  public float floatLoss;
+  public float quantizedLoss;
+  public float floatAccuracy;
+  public float quantizedAccuracy;
+
+  /**
+   * Part of the units, the quantized network decides the same as the float network
+   */
+  public float agreement;
+  public float meanAbsoluteDifference;
+  public float maxAbsoluteDifference;
+  public long floatBytes;
+  public long quantizedBytes;
+
+  /**
+   * Returns how many times smaller the quantized parameters are
+   */
+  public float getCompression() {
+    return quantizedBytes > 0 ? (float) floatBytes / quantizedBytes : 0;
+  }
+
+  /**
+   * Tests all units of the session (its source, if set, otherwise its tests) on both networks
+   */
+  public static QuantizationReport compare(NeuralNetwork network, QuantizedNetwork quantized,
+                                           TrainingSession session) {
+    if (quantized.countInputs() != network.getLayers().get(0).countNeurons()
+      || quantized.countOutputs() != network.getLayers().get(network.getLayers().size() - 1).countNeurons()) {
+      throw new IllegalArgumentException("The quantized network does not match the network!");
+    }
+    boolean crossEntropy = network.isOutputSoftmax();
+    float[] floatOutputs = new float[quantized.countOutputs()];
+    float[] quantizedOutputs = new float[quantized.countOutputs()];
+    double floatLoss = 0;
+    double quantizedLoss = 0;
+    double differences = 0;
+    int floatCorrect = 0;
+    int quantizedCorrect = 0;
+    int agreed = 0;
+
+    QuantizationReport report = new QuantizationReport();
+    TrainingDataSource source = session.source != null ? session.source : new ListDataSource(session.tests);
+    try {
+      source.rewind();
+      TestUnit reused = new TestUnit();
+      for (TestUnit unit = source.next(reused); unit != null; unit = source.next(reused)) {
+        network.test(unit.inputValues, floatOutputs);
+        quantized.test(unit.inputValues, quantizedOutputs);
+        floatLoss += loss(floatOutputs, unit.desiredValues, crossEntropy);
+        quantizedLoss += loss(quantizedOutputs, unit.desiredValues, crossEntropy);
+        for (int i = 0; i < floatOutputs.length; i++) {
+          float difference = Math.abs(floatOutputs[i] - quantizedOutputs[i]);
+          differences += difference;
+          report.maxAbsoluteDifference = Math.max(report.maxAbsoluteDifference, difference);
+        }
+        int floatDecision = decision(floatOutputs);
+        int quantizedDecision = decision(quantizedOutputs);
+        int desiredDecision = decision(unit.desiredValues);
+        floatCorrect += floatDecision == desiredDecision ? 1 : 0;
+        quantizedCorrect += quantizedDecision == desiredDecision ? 1 : 0;
+        agreed += floatDecision == quantizedDecision ? 1 : 0;
+        report.units++;
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+
+    if (report.units > 0) {
+      report.floatLoss = (float) (floatLoss / report.units);
+      report.quantizedLoss = (float) (quantizedLoss / report.units);
+      report.floatAccuracy = (float) floatCorrect / report.units;
+      report.quantizedAccuracy = (float) quantizedCorrect / report.units;
+      report.agreement = (float) agreed / report.units;
+      report.meanAbsoluteDifference = (float) (differences / ((long) report.units * floatOutputs.length));
+    }
+    report.floatBytes = countFloatBytes(network.getLayers());
+    report.quantizedBytes = quantized.countBytes();
+    return report;
+  }
+
+  private static double loss(float[] outputs, float[] desiredValues, boolean crossEntropy) {
+    double sum = 0;
+    for (int i = 0; i < outputs.length; i++) {
+      if (crossEntropy) {
+        if (desiredValues[i] != 0) {
+          sum -= desiredValues[i] * Math.log(Math.max(outputs[i], Layer.MIN_PROBABILITY));
+        }
+      } else {
+        float difference = desiredValues[i] - outputs[i];
+        sum += difference * difference;
+      }
+    }
+    return crossEntropy ? sum : sum / outputs.length;
+  }
+
+  /**
+   * Returns the index of the highest value, or the rounded value of a single output
+   */
+  private static int decision(float[] values) {
+    if (values.length == 1) {
+      return Math.round(values[0]);
+    }
+    int best = 0;
+    for (int i = 1; i < values.length; i++) {
+      if (values[i] > values[best]) {
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  private static long countFloatBytes(List<Layer> layers) {
+    long bytes = 0;
+    for (int l = 1; l < layers.size(); l++) {
+      Layer layer = layers.get(l);
+      bytes += ((long) layer.countInputs() * layer.countNeurons() + layer.countNeurons()) * Float.BYTES;
+    }
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT,
+      "units %d, loss %.6f / %.6f, accuracy %.4f / %.4f, agreement %.4f, difference mean %.6f max %.6f, "
+        + "bytes %d / %d (%.2fx)",
+      units, floatLoss, quantizedLoss, floatAccuracy, quantizedAccuracy, agreement, meanAbsoluteDifference,
+      maxAbsoluteDifference, floatBytes, quantizedBytes, getCompression());
+  }
+}
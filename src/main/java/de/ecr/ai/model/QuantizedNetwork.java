@@ -0,0 +1,496 @@
+package de.ecr.ai.model;
+
+import de.ecr.ai.model.neuron.InputNeuron;
+import de.ecr.ai.model.neuron.activation.IActivationFunction;
+import de.ecr.ai.model.neuron.activation.SoftMaxActivation;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.*;
+import static java.text.MessageFormat.format;
+
+/**
+ * An immutable, inference-only copy of a trained {@link NeuralNetwork} with quantized weights, created by
+ * {@link NeuralNetwork#quantize(Quantization)}. Use it, where memory is short.<br/>
+ * 8 bit weights are multiplied with the input values quantized to 8 bit per row, the products are summed up as
+ * integers and scaled back to a float once per neuron. Half precision weights are summed up as floats.<br/>
+ * Like a {@link CompiledNetwork} any number of threads can test on it at the same time. Its compact file is written
+ * by {@link #saveToFile(Path)}:
+ * <pre>
+ * int    magic "ECNQ"
+ * int    version
+ * int    quantization (0 int8 per layer, 1 int8 per row, 2 float16)
+ * int    number of layers
+ * int[2] per layer: number of neurons, activation (like the file of {@link NeuralNetwork#saveToFile(Path)})
+ * long   generations
+ * int    name length in bytes (-1 for no name), followed by the UTF-8 name and padding to 4 bytes
+ * per layer after the input layer:
+ * float  int8 only: scales (one per layer or one per neuron)
+ * float  biases
+ * byte   weights (row-major, int8 or little-endian float16), padding to 4 bytes
+ * </pre>
+ * All numbers are little-endian.
+ *
+ * @author Bjoern Frohberg
+ */
+public final class QuantizedNetwork {
+
+  static final int MAGIC = 0x514e4345; // "ECNQ" in little-endian
+  static final int VERSION = 1;
+
+  /**
+   * Longest row of int8 weights, whose sum of products cannot overflow an int
+   */
+  private static final int MAX_INT8_INPUTS = Integer.MAX_VALUE / (127 * 127);
+
+  private final String name;
+  private final long generations;
+  private final Quantization quantization;
+  private final int inputs;
+  private final QuantizedLayer[] layers;
+  private final int width; // most neurons of a hidden layer
+  private final ThreadLocal<Scratch> scratch = new ThreadLocal<>();
+
+  QuantizedNetwork(NeuralNetwork network, Quantization quantization) {
+    List<Layer> source = network.getLayers();
+    this.name = network.getName();
+    this.generations = network.getGenerations();
+    this.quantization = quantization;
+    this.inputs = source.get(0).countNeurons();
+    this.layers = new QuantizedLayer[source.size() - 1];
+    for (int l = 1; l < source.size(); l++) {
+      Layer layer = source.get(l);
+      layers[l - 1] = new QuantizedLayer(quantization, layer.countInputs(), layer.countNeurons(),
+        BinaryModelFile.activationId(layer));
+      layers[l - 1].quantize(layer.copyWeights(), layer.copyBiases());
+    }
+    this.width = width(layers);
+  }
+
+  private QuantizedNetwork(String name, long generations, Quantization quantization, int inputs,
+                           QuantizedLayer[] layers) {
+    this.name = name;
+    this.generations = generations;
+    this.quantization = quantization;
+    this.inputs = inputs;
+    this.layers = layers;
+    this.width = width(layers);
+  }
+
+  private static int width(QuantizedLayer[] layers) {
+    int width = 0;
+    for (int l = 0; l < layers.length - 1; l++) {
+      width = Math.max(width, layers[l].count);
+    }
+    return width;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the generations of the network at the time it was quantized
+   */
+  public long getGenerations() {
+    return generations;
+  }
+
+  public Quantization getQuantization() {
+    return quantization;
+  }
+
+  public int countInputs() {
+    return inputs;
+  }
+
+  public int countOutputs() {
+    return layers[layers.length - 1].count;
+  }
+
+  /**
+   * Returns the number of bytes of weights, scales and biases
+   */
+  public long countBytes() {
+    long bytes = 0;
+    for (QuantizedLayer layer : layers) {
+      bytes += layer.countBytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * Propagate input values (normalized between 0 and 1) and passes the predicted output values back as result.
+   */
+  public float[] test(float... inputValues) {
+    return test(inputValues, new float[countOutputs()]);
+  }
+
+  /**
+   * Propagate input values (normalized between 0 and 1) and writes the predicted output values into the given
+   * array. Reuse your arrays between calls and this method will not allocate anything on the same thread.
+   *
+   * @param outputValues requires the exact same size as number of output neurons!
+   * @return the given outputValues
+   */
+  public float[] test(float[] inputValues, float[] outputValues) {
+    if (inputValues == null || inputValues.length != inputs) {
+      throw new IllegalArgumentException("inputValues must be the same count");
+    }
+    if (outputValues == null || outputValues.length != countOutputs()) {
+      throw new IllegalArgumentException("outputValues must be the same count as output neurons");
+    }
+    return propagate(inputValues, outputValues, 1);
+  }
+
+  /**
+   * Propagates a batch of input rows (normalized between 0 and 1) and writes the output rows into the given array.
+   * Rows are laid out one after another, like {@link NeuralNetwork#testBatch(float[], int, float[])}.
+   *
+   * @return the given outputValues
+   */
+  public float[] testBatch(float[] inputValues, int rows, float[] outputValues) {
+    if (rows < 0) {
+      throw new IllegalArgumentException("rows must be positive or 0 (zero)!");
+    }
+    if (inputValues == null || inputValues.length != rows * inputs) {
+      throw new IllegalArgumentException("inputValues must be the same count as rows x input neurons");
+    }
+    if (outputValues == null || outputValues.length != rows * countOutputs()) {
+      throw new IllegalArgumentException("outputValues must be the same count as rows x output neurons");
+    }
+    return propagate(inputValues, outputValues, rows);
+  }
+
+  private float[] propagate(float[] inputValues, float[] outputValues, int rows) {
+    for (float value : inputValues) {
+      InputNeuron.requireNormalized(value);
+    }
+
+    Scratch buffers = scratch(rows);
+    float[] input = inputValues;
+    for (int l = 0; l < layers.length - 1; l++) {
+      float[] output = buffers.values[l & 1];
+      layers[l].propagate(input, output, rows, buffers.quantized);
+      input = output;
+    }
+    layers[layers.length - 1].propagate(input, outputValues, rows, buffers.quantized);
+    return outputValues;
+  }
+
+  /**
+   * Returns the scratch arrays of the current thread, large enough for the values of rows
+   */
+  private Scratch scratch(int rows) {
+    Scratch buffers = scratch.get();
+    int size = rows * width;
+    int inputCount = Math.max(inputs, width);
+    if (buffers == null || buffers.values[0].length < size || buffers.quantized.length < inputCount) {
+      buffers = new Scratch(size, inputCount);
+      scratch.set(buffers);
+    }
+    return buffers;
+  }
+
+  /**
+   * Writes this network into a compact binary file, see {@link QuantizedNetwork}
+   */
+  public void saveToFile(Path file) {
+    byte[] nameBytes = name != null ? name.getBytes(StandardCharsets.UTF_8) : null;
+    int headerSize = pad(24 + (layers.length + 1) * 8 + 4 + (nameBytes != null ? nameBytes.length : 0));
+    long size = headerSize;
+    for (QuantizedLayer layer : layers) {
+      size += layer.countFileBytes();
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Network is too large for a quantized file!");
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(quantization.ordinal()).putInt(layers.length + 1);
+    buffer.putInt(inputs).putInt(0);
+    for (QuantizedLayer layer : layers) {
+      buffer.putInt(layer.count).putInt(layer.activationId);
+    }
+    buffer.putLong(generations);
+    buffer.putInt(nameBytes != null ? nameBytes.length : -1);
+    if (nameBytes != null) {
+      buffer.put(nameBytes);
+    }
+    // cast for Java 8, which has no covariant return types on buffers
+    ((Buffer) buffer).position(headerSize);
+    for (QuantizedLayer layer : layers) {
+      layer.write(buffer);
+    }
+    ((Buffer) buffer).flip();
+
+    try (FileChannel channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, WRITE)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Reads a network written by {@link #saveToFile(Path)}
+   */
+  public static QuantizedNetwork loadFromFile(Path file) {
+    ByteBuffer buffer;
+    try {
+      buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    if (buffer.remaining() < 16 || buffer.getInt() != MAGIC) {
+      throw new IllegalArgumentException(format("{0} is not a quantized neural network file!", file));
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IllegalArgumentException(format("Version {0} of {1} is not supported!", version, file));
+    }
+    int quantizationId = buffer.getInt();
+    if (quantizationId < 0 || quantizationId >= Quantization.values().length) {
+      throw new IllegalArgumentException(format("Unknown quantization {0} in {1}!", quantizationId, file));
+    }
+    Quantization quantization = Quantization.values()[quantizationId];
+    int layerCount = buffer.getInt();
+    if (layerCount < 2) {
+      throw new IllegalArgumentException(format("{0} needs at least input and output layer!", file));
+    }
+
+    int[] neurons = new int[layerCount];
+    int[] activations = new int[layerCount];
+    for (int l = 0; l < layerCount; l++) {
+      neurons[l] = buffer.getInt();
+      activations[l] = buffer.getInt();
+    }
+    long generations = buffer.getLong();
+    int nameLength = buffer.getInt();
+    String name = null;
+    // cast for Java 8, which has no covariant return types on buffers
+    if (nameLength >= 0) {
+      name = new String(buffer.array(), buffer.position(), nameLength, StandardCharsets.UTF_8);
+      ((Buffer) buffer).position(buffer.position() + nameLength);
+    }
+    ((Buffer) buffer).position(pad(buffer.position()));
+
+    QuantizedLayer[] layers = new QuantizedLayer[layerCount - 1];
+    for (int l = 1; l < layerCount; l++) {
+      layers[l - 1] = new QuantizedLayer(quantization, neurons[l - 1], neurons[l], activations[l]);
+      layers[l - 1].read(buffer);
+    }
+    return new QuantizedNetwork(name, generations, quantization, neurons[0], layers);
+  }
+
+  private static int pad(int bytes) {
+    return (bytes + 3) & ~3;
+  }
+
+  /**
+   * Values between the layers and the quantized input row of one thread
+   */
+  private static final class Scratch {
+
+    private final float[][] values;
+    private final byte[] quantized;
+
+    Scratch(int size, int inputs) {
+      values = new float[][]{new float[size], new float[size]};
+      quantized = new byte[inputs];
+    }
+  }
+
+  /**
+   * Quantized weights, float scales and biases and the activation of one layer
+   */
+  private static final class QuantizedLayer {
+
+    private final Quantization quantization;
+    private final int inputCount;
+    private final int count;
+    private final int activationId;
+    private final boolean softmax;
+    private final IActivationFunction activation; // null for softmax
+    private final float[] scales;
+    private final float[] biases;
+    private final byte[] weights; // int8
+    private final short[] halfWeights; // float16
+
+    QuantizedLayer(Quantization quantization, int inputCount, int count, int activationId) {
+      if (quantization != Quantization.FLOAT16 && inputCount > MAX_INT8_INPUTS) {
+        throw new IllegalArgumentException(format("A layer of {0} inputs is too wide for int8 weights!", inputCount));
+      }
+      this.quantization = quantization;
+      this.inputCount = inputCount;
+      this.count = count;
+      this.activationId = activationId;
+      this.softmax = activationId == BinaryModelFile.SOFTMAX;
+      this.activation = softmax ? null : BinaryModelFile.activation(activationId);
+      this.biases = new float[count];
+      if (quantization == Quantization.FLOAT16) {
+        this.scales = null;
+        this.weights = null;
+        this.halfWeights = new short[count * inputCount];
+      } else {
+        this.scales = new float[quantization == Quantization.INT8_PER_ROW ? count : 1];
+        this.weights = new byte[count * inputCount];
+        this.halfWeights = null;
+      }
+    }
+
+    /**
+     * Quantizes the float weights and copies the biases
+     */
+    void quantize(FloatBuffer weightBuffer, FloatBuffer biasBuffer) {
+      biasBuffer.duplicate().get(biases);
+      float[] row = new float[inputCount];
+      float layerMaximum = 0;
+      if (quantization == Quantization.INT8_PER_LAYER) {
+        for (int k = 0; k < weightBuffer.capacity(); k++) {
+          layerMaximum = Math.max(layerMaximum, Math.abs(weightBuffer.get(k)));
+        }
+        scales[0] = layerMaximum > 0 ? layerMaximum / 127 : 1;
+      }
+      for (int n = 0; n < count; n++) {
+        int offset = n * inputCount;
+        for (int i = 0; i < inputCount; i++) {
+          row[i] = weightBuffer.get(offset + i);
+        }
+        if (quantization == Quantization.FLOAT16) {
+          for (int i = 0; i < inputCount; i++) {
+            halfWeights[offset + i] = Float16.fromFloat(row[i]);
+          }
+          continue;
+        }
+        if (quantization == Quantization.INT8_PER_ROW) {
+          float maximum = 0;
+          for (float weight : row) {
+            maximum = Math.max(maximum, Math.abs(weight));
+          }
+          scales[n] = maximum > 0 ? maximum / 127 : 1;
+        }
+        float inverse = 1 / scales[quantization == Quantization.INT8_PER_ROW ? n : 0];
+        for (int i = 0; i < inputCount; i++) {
+          weights[offset + i] = (byte) Math.max(-127, Math.min(127, Math.round(row[i] * inverse)));
+        }
+      }
+    }
+
+    void propagate(float[] input, float[] output, int rows, byte[] quantized) {
+      for (int r = 0; r < rows; r++) {
+        int in = r * inputCount;
+        int out = r * count;
+        if (weights != null) {
+          multiplyInt8(input, in, output, out, quantized);
+        } else {
+          multiplyFloat16(input, in, output, out);
+        }
+        if (softmax) {
+          SoftMaxActivation.softmax(output, output, out, out + count);
+        } else {
+          activation.activate(output, output, out, out + count);
+        }
+      }
+    }
+
+    /**
+     * Quantizes the input row symmetric to 8 bit, sums up the products of each neuron as int and scales them back
+     */
+    private void multiplyInt8(float[] input, int in, float[] output, int out, byte[] quantized) {
+      float maximum = 0;
+      for (int i = 0; i < inputCount; i++) {
+        maximum = Math.max(maximum, Math.abs(input[in + i]));
+      }
+      float inputScale = maximum > 0 ? maximum / 127 : 1;
+      float inverse = 1 / inputScale;
+      for (int i = 0; i < inputCount; i++) {
+        quantized[i] = (byte) Math.round(input[in + i] * inverse);
+      }
+      boolean perRow = scales.length > 1;
+      for (int n = 0; n < count; n++) {
+        int row = n * inputCount;
+        int sum = 0;
+        for (int i = 0; i < inputCount; i++) {
+          sum += weights[row + i] * quantized[i];
+        }
+        output[out + n] = biases[n] + sum * scales[perRow ? n : 0] * inputScale;
+      }
+    }
+
+    private void multiplyFloat16(float[] input, int in, float[] output, int out) {
+      for (int n = 0; n < count; n++) {
+        int row = n * inputCount;
+        float sum = biases[n];
+        for (int i = 0; i < inputCount; i++) {
+          sum += Float16.toFloat(halfWeights[row + i]) * input[in + i];
+        }
+        output[out + n] = sum;
+      }
+    }
+
+    long countBytes() {
+      if (halfWeights != null) {
+        return (long) halfWeights.length * Short.BYTES + (long) count * Float.BYTES;
+      }
+      return weights.length + (long) (scales.length + count) * Float.BYTES;
+    }
+
+    long countFileBytes() {
+      return pad((int) Math.min(Integer.MAX_VALUE, countBytes()));
+    }
+
+    void write(ByteBuffer buffer) {
+      if (scales != null) {
+        for (float scale : scales) {
+          buffer.putFloat(scale);
+        }
+      }
+      for (float bias : biases) {
+        buffer.putFloat(bias);
+      }
+      if (weights != null) {
+        buffer.put(weights);
+      } else {
+        for (short weight : halfWeights) {
+          buffer.putShort(weight);
+        }
+      }
+      // cast for Java 8, which has no covariant return types on buffers
+      ((Buffer) buffer).position(pad(buffer.position()));
+    }
+
+    void read(ByteBuffer buffer) {
+      if (buffer.remaining() < countBytes()) {
+        throw new IllegalArgumentException("Quantized neural network file ends before the weights!");
+      }
+      if (scales != null) {
+        for (int s = 0; s < scales.length; s++) {
+          scales[s] = buffer.getFloat();
+        }
+      }
+      for (int n = 0; n < count; n++) {
+        biases[n] = buffer.getFloat();
+      }
+      if (weights != null) {
+        buffer.get(weights);
+      } else {
+        for (int k = 0; k < halfWeights.length; k++) {
+          halfWeights[k] = buffer.getShort();
+        }
+      }
+      // cast for Java 8, which has no covariant return types on buffers
+      ((Buffer) buffer).position(Math.min(buffer.limit(), pad(buffer.position())));
+    }
+  }
+}
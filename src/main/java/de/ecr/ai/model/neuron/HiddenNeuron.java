@@ -1,10 +1,8 @@
 package de.ecr.ai.model.neuron;
 
-import de.ecr.ai.model.Binding;
 import de.ecr.ai.model.Layer;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Determine a neuron inside a hidden layer.
@@ -16,12 +14,12 @@ import java.util.stream.Collectors;
  */
 public final class HiddenNeuron extends Neuron implements IPropagateBack, IBindableSourceNeuron {
 	
-	public HiddenNeuron(String name, Layer ownerLayer) {
-		super(name, ownerLayer);
+	public HiddenNeuron(String name, int index, Layer ownerLayer) {
+		super(name, index, ownerLayer);
 	}
 
   @Override
   public void bindToInputNeurons(List<IBindableSourceNeuron> neurons) {
-		inputBindings.addAll(neurons.stream().map(n -> new Binding(this, n)).collect(Collectors.toList()));
+		bindInOrder(neurons);
   }
 }
@@ -18,4 +18,9 @@ public interface IBindableSourceNeuron {
 	 * Returns neuron name
 	 */
 	String getName();
+	
+	/**
+	 * Returns the position of the neuron inside its layer
+	 */
+	int getIndex();
 }
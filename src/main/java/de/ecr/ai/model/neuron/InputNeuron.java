@@ -12,8 +12,8 @@ import static java.text.MessageFormat.format;
  */
 public final class InputNeuron extends Neuron implements IBindableSourceNeuron {
 	
-	public InputNeuron(String name, Layer ownerLayer) {
-		super(name, ownerLayer);
+	public InputNeuron(String name, int index, Layer ownerLayer) {
+		super(name, index, ownerLayer);
 	}
 	
 	/**
@@ -22,12 +22,19 @@ public final class InputNeuron extends Neuron implements IBindableSourceNeuron {
 	 * @throws IllegalArgumentException Your value need to be valid between 0 (zero) and 1 (one)
 	 */
 	public void setInputValue(float value) throws IllegalArgumentException {
-		
+		requireNormalized(value);
+		super.setOutput(value);
+	}
+	
+	/**
+	 * Checks a value to be valid as input value
+	 *
+	 * @throws IllegalArgumentException Your value need to be valid between 0 (zero) and 1 (one)
+	 */
+	public static void requireNormalized(float value) throws IllegalArgumentException {
 		if(value < 0 || value > 1) {
 			throw new IllegalArgumentException(format("Your value '{0}' is not normalized between 0 and 1!", value));
 		}
-		
-		super.setOutput(value);
 	}
 
 }
@@ -4,9 +4,12 @@ import de.ecr.ai.model.Binding;
 import de.ecr.ai.model.Layer;
 import de.ecr.ai.model.annotation.LearningData;
 import de.ecr.ai.model.neuron.activation.IActivationFunction;
+import de.ecr.ai.model.neuron.activation.SoftMaxActivation;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
 
 import static java.util.stream.Collectors.toList;
 
@@ -20,25 +23,29 @@ import static java.util.stream.Collectors.toList;
  * <li>or as hidden-neuron (hast input binding and variable output values, based on bindings)</li>
  * </ul>
  * </p>
+ * <p>The numbers of a neuron (output, bias, error and weights) are stored inside its {@link Layer}.
+ * A neuron is a view on its row of the layer storage.</p>
  *
  * @author Bjoern Frohberg
  */
 public class Neuron {
 
-    private float output;
-    private float bias;
     private IActivationFunction activation = IActivationFunction.SIGMOID;
-    final List<Binding> inputBindings;
-    private final String name;
+    private List<IBindableSourceNeuron> sourceNeurons = Collections.emptyList();
+    private final List<Binding> inputBindings = new InputBindings();
+    private String name;
+    private final int index;
     private final Layer layer;
     private final NeuronType type;
     private float desired;
-    private float error;
 
-    protected Neuron(String name, Layer ownerLayer) {
+    /**
+     * @param name a name or {@code null} to get the default name of the layer on first use
+     */
+    protected Neuron(String name, int index, Layer ownerLayer) {
         this.name = name;
+        this.index = index;
         this.layer = ownerLayer;
-        this.inputBindings = new ArrayList<>();
 
         if (this instanceof OutputNeuron) {
             type = NeuronType.OUTPUT;
@@ -53,11 +60,18 @@ public class Neuron {
         return layer;
     }
 
+    /**
+     * Returns the position of this neuron inside its layer
+     */
+    public final int getIndex() {
+        return index;
+    }
+
     /**
      * Return a set output value
      */
     public final float getOutputValue() {
-        return output;
+        return layer.getOutput(index);
     }
 
     /**
@@ -66,14 +80,14 @@ public class Neuron {
      */
     @LearningData
     public final float getBias() {
-        return bias;
+        return layer.getBias(index);
     }
 
     /**
      * Set a bias
      */
     public void setBias(float bias) {
-        this.bias = bias;
+        layer.setBias(index, bias);
     }
 
     /**
@@ -81,6 +95,14 @@ public class Neuron {
      */
     public final void setActivation(IActivationFunction activation) {
         this.activation = activation;
+        layer.invalidateActivation();
+    }
+
+    /**
+     * Returns the activation function
+     */
+    public final IActivationFunction getActivation() {
+        return activation;
     }
 
     /**
@@ -99,14 +121,7 @@ public class Neuron {
         // add bias to sum
         // send through activation function
         // set output as value what comes from activation function
-
-        double sum = inputBindings
-                .stream()
-                .mapToDouble(Binding::calculateOutput).sum();
-        sum += bias;
-
-        float inputSum = (float) sum;
-        this.output = activation.activate(inputSum);
+        layer.propagate(index);
     }
 
     /**
@@ -114,25 +129,33 @@ public class Neuron {
      * Only an input neuron directly sets this output as identity.
      */
     protected final void setOutput(float value) {
-        this.output = value;
+        layer.setOutput(index, value);
     }
 
     /**
      * Returns the calculated error
      */
     public final float getError() {
-        return error;
+        return layer.getError(index);
     }
 
     /**
      * Set an error fixed
      */
     public final void setError(float error) {
-        this.error = error;
+        layer.setError(index, error);
+    }
+
+    /**
+     * Binds this neuron to each source neuron in order, replacing the bindings before. The list is shared by all
+     * neurons of a layer and must not change, no binding is created here.
+     */
+    final void bindInOrder(List<IBindableSourceNeuron> neurons) {
+        sourceNeurons = neurons;
     }
 
     /**
-     * Returns any input bindings with weights
+     * Returns any input bindings with weights. The list is a view, each binding is created when it is read.
      */
     public final List<Binding> getInputBindings() {
         return inputBindings;
@@ -142,6 +165,9 @@ public class Neuron {
      * Returns the neuron name
      */
     public String getName() {
+        if (name == null) {
+            name = layer.getNeuronName(index);
+        }
         return name;
     }
 
@@ -161,6 +187,13 @@ public class Neuron {
         this.desired = desired;
     }
 
+    /**
+     * Returns the preferred value
+     */
+    protected final float getDesired() {
+        return desired;
+    }
+
     /**
      * Updates the error, output layer and hidden layer calculcation differ to each other.
      * This is only for use for the output layer, else throw an exception
@@ -170,7 +203,11 @@ public class Neuron {
             throw new RuntimeException("Cannot train another type than an output layer! " + type);
         }
         float outputValue = getOutputValue();
-        setError(activation.derive(outputValue) * (desired - outputValue));
+        if (activation instanceof SoftMaxActivation && ((SoftMaxActivation) activation).isCrossEntropy()) {
+            setError(desired - outputValue);
+        } else {
+            setError(activation.derive(outputValue) * (desired - outputValue));
+        }
     }
 
     /**
@@ -180,7 +217,7 @@ public class Neuron {
         float childNeuronInput = parentNeuron.getOutputValue();
         float derivated = activation.derive(childNeuronInput);
         float weight = getWeightIfParentNeuron(parentNeuron);
-        float error = this.error;
+        float error = getError();
         return derivated * weight * error;
     }
 
@@ -188,11 +225,10 @@ public class Neuron {
      * Get the weight value for a binding with the given parent neuron, else throw exception
      */
     private float getWeightIfParentNeuron(Neuron parentNeuron) {
-        return inputBindings.stream()
-                .filter(b -> b.isParentNeuron(parentNeuron))
-                .findFirst()
-                .orElseThrow(() -> new IllegalArgumentException("Cannot find parent neuron!"))
-                .getWeight();
+        if (parentNeuron.getLayer() != layer.getParentLayer()) {
+            throw new IllegalArgumentException("Cannot find parent neuron!");
+        }
+        return layer.getWeight(index, parentNeuron.getIndex());
     }
 
     /**
@@ -200,9 +236,30 @@ public class Neuron {
      */
     public void applyDelta(float learningGradient) {
         // updates the horizontal error shift, that fixes mostly local error minimum
-        bias += learningGradient * error;
+        setBias(getBias() + learningGradient * getError());
 
         // adjust weights
-        inputBindings.forEach(b -> b.updateWeight(learningGradient, this));
+        float error = getError();
+        for (IBindableSourceNeuron source : sourceNeurons) {
+            int inputIndex = source.getIndex();
+            layer.setWeight(index, inputIndex,
+                    layer.getWeight(index, inputIndex) + learningGradient * source.getOutputValue() * error);
+        }
+    }
+
+    /**
+     * The bindings to the source neurons, without holding a binding per weight
+     */
+    private final class InputBindings extends AbstractList<Binding> implements RandomAccess {
+
+        @Override
+        public Binding get(int index) {
+            return new Binding(Neuron.this, sourceNeurons.get(index));
+        }
+
+        @Override
+        public int size() {
+            return sourceNeurons.size();
+        }
     }
 }
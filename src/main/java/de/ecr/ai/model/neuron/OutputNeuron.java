@@ -1,8 +1,6 @@
 package de.ecr.ai.model.neuron;
 
-import de.ecr.ai.model.Binding;
 import de.ecr.ai.model.Layer;
-import de.ecr.ai.model.neuron.activation.SoftMaxActivation;
 
 import java.util.List;
 
@@ -15,13 +13,11 @@ import java.util.List;
  */
 public final class OutputNeuron extends Neuron implements IPropagateBack {
 	
-	private float desired;
-	
 	/**
 	 * Defines the output tolerant between 0 and 1 (inclusive)
 	 */
-	public OutputNeuron(String name, Layer ownerLayer) {
-		this(name, false, ownerLayer);
+	public OutputNeuron(String name, int index, Layer ownerLayer) {
+		this(name, false, index, ownerLayer);
 	}
 	
 	/**
@@ -29,29 +25,22 @@ public final class OutputNeuron extends Neuron implements IPropagateBack {
 	 *
 	 * @param softmax null or a value between 0 and 1 to maximize the result to a boolean 0 or 1
 	 */
-	public OutputNeuron(String name, boolean softmax, Layer ownerLayer) {
-		super(name, ownerLayer);
+	public OutputNeuron(String name, boolean softmax, int index, Layer ownerLayer) {
+		super(name, index, ownerLayer);
 		if(softmax) {
-			setActivation(new SoftMaxActivation(this));
+			setActivation(ownerLayer.getSoftMaxActivation());
 		}
 	}
 
 	@Override
   public void bindToInputNeurons(List<IBindableSourceNeuron> neurons) {
-		neurons.parallelStream().map(n -> new Binding(this, n)).forEach(inputBindings::add);
+		bindInOrder(neurons);
   }
 	
 	/**
 	 * A simple setter for desired output value
 	 */
 	public float getDesiredValue() {
-		return desired;
-	}
-	
-	/**
-	 * Returns the set desired output value, if so done
-	 */
-	public void setDesired(float value) {
-		this.desired = value;
+		return getDesired();
 	}
 }
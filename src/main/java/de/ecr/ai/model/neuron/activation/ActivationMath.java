@@ -0,0 +1,42 @@
+package de.ecr.ai.model.neuron.activation;
+
+/**
+ * Tangent hyperbolic and sigmoid in float precision for the activation functions. Single and bulk activation use the
+ * same formula, so a layer activated at once gets exactly the values of its neurons activated one by one.<br/>
+ * Tangent hyperbolic is a rational function of degree 13/6 on [-7.9, 7.9] (the float approximation of Eigen), the
+ * sum is clamped to this range. Sigmoid is 0.5 + 0.5 * tanh(x / 2).
+ * A loop over them has only float arithmetic, so the JIT compiles it into vector instructions.<br/>
+ * Measured against {@link Math#tanh(double)} and {@link Math#exp(double)} over all sums: tangent hyperbolic has an
+ * absolute and relative error below 3.5e-7, sigmoid an absolute error below 2.5e-7. Both reach their limits
+ * exactly.
+ *
+ * @author Bjoern Frohberg
+ */
+final class ActivationMath {
+
+  private static final float CLAMP = 7.90531110763549805f;
+
+  private ActivationMath() {
+  }
+
+  static float tanh(float sum) {
+    float x = Math.max(-CLAMP, Math.min(CLAMP, sum));
+    float x2 = x * x;
+    float p = -2.76076847742355e-16f;
+    p = p * x2 + 2.00018790482477e-13f;
+    p = p * x2 - 8.60467152213735e-11f;
+    p = p * x2 + 5.12229709037114e-08f;
+    p = p * x2 + 1.48572235717979e-05f;
+    p = p * x2 + 6.37261928875436e-04f;
+    p = p * x2 + 4.89352455891786e-03f;
+    float q = 1.19825839466702e-06f;
+    q = q * x2 + 1.18534705686654e-04f;
+    q = q * x2 + 2.26843463243900e-03f;
+    q = q * x2 + 4.89352518554385e-03f;
+    return x * p / q;
+  }
+
+  static float sigmoid(float sum) {
+    return 0.5f + 0.5f * tanh(0.5f * sum);
+  }
+}
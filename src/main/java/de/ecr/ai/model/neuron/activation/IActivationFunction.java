@@ -28,4 +28,24 @@ public interface IActivationFunction {
   default float derive(float output) {
     return output * (1 - output);
   }
+
+  /**
+   * Converts the sums at positions [from, to) to normalized values at the same positions of outputs.
+   * Used to activate a whole layer at once.
+   */
+  default void activate(float[] sums, float[] outputs, int from, int to) {
+    for (int i = from; i < to; i++) {
+      outputs[i] = activate(sums[i]);
+    }
+  }
+
+  /**
+   * Inverses the normalized values at positions [from, to) to the same positions of derivatives.
+   * Used to derive a whole layer at once.
+   */
+  default void derive(float[] outputs, float[] derivatives, int from, int to) {
+    for (int i = from; i < to; i++) {
+      derivatives[i] = derive(outputs[i]);
+    }
+  }
 }
@@ -1,7 +1,8 @@
 package de.ecr.ai.model.neuron.activation;
 
 /**
- * Gives you conversion for any value to put it between 0 and one (normalized from a sum)
+ * Gives you conversion for any value to put it between 0 and one (normalized from a sum).
+ * Calculated in float precision by {@link ActivationMath}.
  *
  * @author Bjoern Frohberg
  */
@@ -9,6 +10,20 @@ public final class SigmoidActivation implements IActivationFunction {
 	
 	@Override
 	public float activate(float sum) {
-		return (float) (1d / (1d + Math.exp(-sum)));
+		return ActivationMath.sigmoid(sum);
+	}
+	
+	@Override
+	public void activate(float[] sums, float[] outputs, int from, int to) {
+		for(int i = from; i < to; i++) {
+			outputs[i] = ActivationMath.sigmoid(sums[i]);
+		}
+	}
+	
+	@Override
+	public void derive(float[] outputs, float[] derivatives, int from, int to) {
+		for(int i = from; i < to; i++) {
+			derivatives[i] = outputs[i] * (1 - outputs[i]);
+		}
 	}
 }
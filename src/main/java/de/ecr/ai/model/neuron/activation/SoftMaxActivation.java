@@ -1,30 +1,99 @@
 package de.ecr.ai.model.neuron.activation;
 
 import de.ecr.ai.model.Layer;
-import de.ecr.ai.model.neuron.Neuron;
 import de.ecr.ai.model.neuron.OutputNeuron;
 
-import java.util.List;
-
 /**
  * Use for a classificational result.
  * This is a result with multiple outputs to get only one output near by or exact 1 and every output else 0.
+ * <p>
+ * Softmax is an operation of the whole layer: every neuron of the layer shares one instance, so the layer is
+ * activated at once. The sums are shifted by their maximum before {@link Math#exp(double)}, so large sums
+ * cannot overflow. During training the output errors are the gradient of softmax and cross-entropy together,
+ * which is simply the desired value minus the output value (see {@link #isCrossEntropy()}).
+ * </p>
  *
  * @author Bjoern Frohberg
  */
 public class SoftMaxActivation implements IActivationFunction {
 
-  private final Neuron neuron;
+  private final Layer layer;
+
+  public SoftMaxActivation(Layer layer) {
+    this.layer = layer;
+  }
 
   public SoftMaxActivation(OutputNeuron n) {
-    this.neuron = n;
+    this(n.getLayer());
   }
 
+  /**
+   * Calculates the softmax of a single sum by the current sums of the layer. Prefer the activation of the whole
+   * layer, this method needs to read every sum of the layer for each call.
+   */
   @Override
   public float activate(float sum) {
     // calculates a softmax a single result with 1 for all possibilities (classification)
-    List<Neuron> neurons = Layer.getNeurons(neuron.getLayer());
-    float total = (float) neurons.stream().mapToDouble(n -> Math.exp(n.getOutputValue())).sum();
-    return (float) (Math.exp(sum) / total);
+    int count = layer.countNeurons();
+    float max = sum;
+    for (int i = 0; i < count; i++) {
+      max = Math.max(max, layer.getSum(i));
+    }
+    double total = 0;
+    for (int i = 0; i < count; i++) {
+      total += Math.exp(layer.getSum(i) - max);
+    }
+    return (float) (Math.exp(sum - max) / total);
+  }
+
+  /**
+   * Calculates the softmax of the sums [from, to) as one classification, the outputs sum up to 1
+   */
+  @Override
+  public void activate(float[] sums, float[] outputs, int from, int to) {
+    softmax(sums, outputs, from, to);
+  }
+
+  /**
+   * Calculates the softmax of the sums [from, to) as one classification without a layer. Sums and outputs
+   * may be the same array.
+   */
+  public static void softmax(float[] sums, float[] outputs, int from, int to) {
+    if (from >= to) {
+      return;
+    }
+    float max = sums[from];
+    for (int i = from + 1; i < to; i++) {
+      max = Math.max(max, sums[i]);
+    }
+    double total = 0;
+    for (int i = from; i < to; i++) {
+      float exp = (float) Math.exp(sums[i] - max);
+      outputs[i] = exp;
+      total += exp;
+    }
+    float scale = (float) (1d / total);
+    for (int i = from; i < to; i++) {
+      outputs[i] *= scale;
+    }
+  }
+
+  /**
+   * Writes the diagonal of the softmax derivative o * (1 - o) for the outputs [from, to). Training a softmax layer
+   * does not need it, see {@link #isCrossEntropy()}.
+   */
+  @Override
+  public void derive(float[] outputs, float[] derivatives, int from, int to) {
+    for (int i = from; i < to; i++) {
+      derivatives[i] = outputs[i] * (1 - outputs[i]);
+    }
+  }
+
+  /**
+   * Returns {@code true}, because the output errors of a softmax layer are calculated for cross-entropy:
+   * desired value minus output value, without a derivative.
+   */
+  public boolean isCrossEntropy() {
+    return true;
   }
 }
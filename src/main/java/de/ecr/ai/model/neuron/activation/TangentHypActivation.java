@@ -1,7 +1,8 @@
 package de.ecr.ai.model.neuron.activation;
 
 /**
- * Gives you conversion for any value to put it between -1 and 1 (normalized ffrom a sum)
+ * Gives you conversion for any value to put it between -1 and 1 (normalized ffrom a sum).
+ * Calculated in float precision by {@link ActivationMath}.
  *
  * @author Bjoern Frohberg
  */
@@ -9,6 +10,25 @@ public final class TangentHypActivation implements IActivationFunction {
 	
 	@Override
 	public float activate(float sum) {
-		return (float) Math.tanh(sum);
+		return ActivationMath.tanh(sum);
+	}
+	
+	@Override
+	public float derive(float output) {
+		return 1 - output * output;
+	}
+	
+	@Override
+	public void activate(float[] sums, float[] outputs, int from, int to) {
+		for(int i = from; i < to; i++) {
+			outputs[i] = ActivationMath.tanh(sums[i]);
+		}
+	}
+	
+	@Override
+	public void derive(float[] outputs, float[] derivatives, int from, int to) {
+		for(int i = from; i < to; i++) {
+			derivatives[i] = 1 - outputs[i] * outputs[i];
+		}
 	}
 }
@@ -0,0 +1,57 @@
+package de.ecr.ai.model.optimizer;
+
+/**
+ * Keeps a decaying mean of the steps and of the squared steps of each parameter and moves the parameter by their
+ * ratio, corrected for the means starting at 0 (zero) (Adam, Kingma and Ba)
+ *
+ * @author Bjoern Frohberg
+ */
+public final class AdamOptimizer implements IOptimizer {
+
+  private final float beta1;
+  private final float beta2;
+  private final float epsilon;
+
+  /**
+   * @param beta1   part of the mean of steps kept for the next batch, usually 0.9
+   * @param beta2   part of the mean of squared steps kept for the next batch, usually 0.999
+   * @param epsilon small positive number, which keeps the division away from 0 (zero)
+   */
+  public AdamOptimizer(float beta1, float beta2, float epsilon) {
+    if (!(beta1 >= 0 && beta1 < 1) || !(beta2 >= 0 && beta2 < 1)) {
+      throw new IllegalArgumentException("beta1 and beta2 must be between 0 (inclusive) and 1 (exclusive)!");
+    }
+    if (!(epsilon > 0)) {
+      throw new IllegalArgumentException("epsilon must be greater than 0 (zero)!");
+    }
+    this.beta1 = beta1;
+    this.beta2 = beta2;
+    this.epsilon = epsilon;
+  }
+
+  @Override
+  public int countStates() {
+    return 2;
+  }
+
+  @Override
+  public void update(float[] parameters, float[] deltas, float[][] states, int length, float learningGradient,
+                     int units, long step) {
+    float[] means = states[0];
+    float[] squares = states[1];
+    float scale = 1f / units;
+    // the bias correction of both means folded into the rate and epsilon, once per update
+    double correction2 = Math.sqrt(1 - Math.pow(beta2, step));
+    float rate = (float) (learningGradient * correction2 / (1 - Math.pow(beta1, step)));
+    float correctedEpsilon = (float) (epsilon * correction2);
+    for (int k = 0; k < length; k++) {
+      float gradient = deltas[k] * scale;
+      float mean = beta1 * means[k] + (1 - beta1) * gradient;
+      float square = beta2 * squares[k] + (1 - beta2) * gradient * gradient;
+      means[k] = mean;
+      squares[k] = square;
+      parameters[k] += rate * mean / ((float) Math.sqrt(square) + correctedEpsilon);
+      deltas[k] = 0;
+    }
+  }
+}
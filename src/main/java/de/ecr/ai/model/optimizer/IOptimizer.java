@@ -0,0 +1,60 @@
+package de.ecr.ai.model.optimizer;
+
+/**
+ * Defines a strategy to adjust weights and biases by the deltas collected of a batch of test units. Select it by
+ * {@link de.ecr.ai.model.NeuralNetwork#setOptimizer(IOptimizer)}.<br/>
+ * An optimizer holds no state itself. Its states (like a velocity or moments) are kept by the layers in arrays
+ * parallel to the weights and the biases, so one optimizer can be shared by any number of networks.
+ *
+ * @author Bjoern Frohberg
+ */
+public interface IOptimizer {
+
+  /**
+   * {@link SgdOptimizer}
+   */
+  IOptimizer SGD = new SgdOptimizer();
+
+  /**
+   * {@link MomentumOptimizer} with momentum 0.9
+   */
+  IOptimizer MOMENTUM = new MomentumOptimizer(0.9f, false);
+
+  /**
+   * {@link MomentumOptimizer} with Nesterov momentum 0.9
+   */
+  IOptimizer NESTEROV = new MomentumOptimizer(0.9f, true);
+
+  /**
+   * {@link RmsPropOptimizer} with decay 0.9
+   */
+  IOptimizer RMS_PROP = new RmsPropOptimizer(0.9f, 1e-7f);
+
+  /**
+   * {@link AdamOptimizer} with beta1 0.9 and beta2 0.999
+   */
+  IOptimizer ADAM = new AdamOptimizer(0.9f, 0.999f, 1e-7f);
+
+  /**
+   * Returns the number of states kept for each weight and bias
+   */
+  default int countStates() {
+    return 0;
+  }
+
+  /**
+   * Adjusts the parameters at [0, length) and sets their deltas to 0 (zero) in the same pass.<br/>
+   * A delta is the sum of the steps (the negative gradients) of the units of a batch, so delta / units is the
+   * mean step.
+   *
+   * @param parameters       weights or biases
+   * @param deltas           the collected deltas of the parameters
+   * @param states           {@link #countStates()} arrays of states at the same positions as the parameters, all
+   *                         0 (zero) before the first update
+   * @param learningGradient the learning rate
+   * @param units            the number of test units of the batch
+   * @param step             the number of this update, 1 for the first one
+   */
+  void update(float[] parameters, float[] deltas, float[][] states, int length, float learningGradient, int units,
+              long step);
+}
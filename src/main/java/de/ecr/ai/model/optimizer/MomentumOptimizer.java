@@ -0,0 +1,45 @@
+package de.ecr.ai.model.optimizer;
+
+/**
+ * Gradient descent with momentum: a velocity per parameter sums up the mean steps of the batches, decayed by the
+ * momentum, and the parameter moves by the velocity. With Nesterov momentum the parameter moves by the step plus
+ * the decayed velocity, which looks ahead of the plain momentum.
+ *
+ * @author Bjoern Frohberg
+ */
+public final class MomentumOptimizer implements IOptimizer {
+
+  private final float momentum;
+  private final boolean nesterov;
+
+  /**
+   * @param momentum part of the velocity kept for the next batch, between 0 and 1 (exclusive), usually 0.9
+   * @param nesterov {@code true} for Nesterov momentum
+   */
+  public MomentumOptimizer(float momentum, boolean nesterov) {
+    if (!(momentum >= 0 && momentum < 1)) {
+      throw new IllegalArgumentException("momentum must be between 0 (inclusive) and 1 (exclusive)!");
+    }
+    this.momentum = momentum;
+    this.nesterov = nesterov;
+  }
+
+  @Override
+  public int countStates() {
+    return 1;
+  }
+
+  @Override
+  public void update(float[] parameters, float[] deltas, float[][] states, int length, float learningGradient,
+                     int units, long step) {
+    float[] velocities = states[0];
+    float scale = 1f / units;
+    for (int k = 0; k < length; k++) {
+      float gradient = deltas[k] * scale;
+      float velocity = momentum * velocities[k] + gradient;
+      velocities[k] = velocity;
+      parameters[k] += learningGradient * (nesterov ? gradient + momentum * velocity : velocity);
+      deltas[k] = 0;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package de.ecr.ai.model.optimizer;
+
+/**
+ * Divides the mean step of each parameter by the root of a decaying mean of its squared steps, so each parameter
+ * gets its own learning rate (RMSProp, Hinton)
+ *
+ * @author Bjoern Frohberg
+ */
+public final class RmsPropOptimizer implements IOptimizer {
+
+  private final float decay;
+  private final float epsilon;
+
+  /**
+   * @param decay   part of the mean of squares kept for the next batch, between 0 and 1 (exclusive), usually 0.9
+   * @param epsilon small positive number, which keeps the division away from 0 (zero)
+   */
+  public RmsPropOptimizer(float decay, float epsilon) {
+    if (!(decay >= 0 && decay < 1)) {
+      throw new IllegalArgumentException("decay must be between 0 (inclusive) and 1 (exclusive)!");
+    }
+    if (!(epsilon > 0)) {
+      throw new IllegalArgumentException("epsilon must be greater than 0 (zero)!");
+    }
+    this.decay = decay;
+    this.epsilon = epsilon;
+  }
+
+  @Override
+  public int countStates() {
+    return 1;
+  }
+
+  @Override
+  public void update(float[] parameters, float[] deltas, float[][] states, int length, float learningGradient,
+                     int units, long step) {
+    float[] squares = states[0];
+    float scale = 1f / units;
+    for (int k = 0; k < length; k++) {
+      float gradient = deltas[k] * scale;
+      float square = decay * squares[k] + (1 - decay) * gradient * gradient;
+      squares[k] = square;
+      parameters[k] += learningGradient * gradient / ((float) Math.sqrt(square) + epsilon);
+      deltas[k] = 0;
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package de.ecr.ai.model.optimizer;
+
+/**
+ * Plain stochastic gradient descent: each parameter moves by the learning rate times its mean step
+ *
+ * @author Bjoern Frohberg
+ */
+public final class SgdOptimizer implements IOptimizer {
+
+  @Override
+  public void update(float[] parameters, float[] deltas, float[][] states, int length, float learningGradient,
+                     int units, long step) {
+    float rate = learningGradient / units;
+    for (int k = 0; k < length; k++) {
+      parameters[k] += rate * deltas[k];
+      deltas[k] = 0;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package de.ecr.ai.model.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Test units of a text file with one test unit per line: the input values followed by the desired values, split by
+ * a separator. Empty lines are skipped. The file is streamed, each generation reads it again from the start.<br/>
+ * The test units keep the order of the file. To shuffle them, convert the file once by
+ * {@link MappedDataSource#write(Path, TrainingDataSource)}.
+ *
+ * @author Bjoern Frohberg
+ */
+public final class CsvDataSource implements TrainingDataSource {
+
+  private final Path file;
+  private final int inputs;
+  private final int outputs;
+  private final char separator;
+  private final boolean header;
+  private BufferedReader reader;
+  private long lineNumber;
+
+  /**
+   * Reads a file of comma separated values without a header line
+   */
+  public CsvDataSource(Path file, int inputs, int outputs) {
+    this(file, inputs, outputs, ',', false);
+  }
+
+  /**
+   * Reads a file of values split by the separator, the first line is skipped as header, if {@code true}
+   */
+  public CsvDataSource(Path file, int inputs, int outputs, char separator, boolean header) {
+    if (file == null) {
+      throw new IllegalArgumentException("Your file may not be null!");
+    }
+    if (inputs < 1 || outputs < 1) {
+      throw new IllegalArgumentException("inputs and outputs must be 1 or greater!");
+    }
+    this.file = file;
+    this.inputs = inputs;
+    this.outputs = outputs;
+    this.separator = separator;
+    this.header = header;
+  }
+
+  @Override
+  public void rewind() throws IOException {
+    close();
+    reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+    lineNumber = 0;
+    if (header) {
+      reader.readLine();
+      lineNumber++;
+    }
+  }
+
+  @Override
+  public TestUnit next(TestUnit reuse) throws IOException {
+    if (reader == null) {
+      rewind();
+    }
+    String line;
+    do {
+      line = reader.readLine();
+      lineNumber++;
+      if (line == null) {
+        return null;
+      }
+    } while (line.trim().isEmpty());
+
+    TestUnit unit = reuse != null ? reuse : new TestUnit();
+    if (unit.inputValues == null || unit.inputValues.length != inputs) {
+      unit.inputValues = new float[inputs];
+    }
+    if (unit.desiredValues == null || unit.desiredValues.length != outputs) {
+      unit.desiredValues = new float[outputs];
+    }
+
+    int values = 0;
+    int from = 0;
+    while (from <= line.length()) {
+      int to = line.indexOf(separator, from);
+      if (to < 0) {
+        to = line.length();
+      }
+      if (values == inputs + outputs) {
+        values++;
+        break;
+      }
+      float value = parse(line, from, to);
+      if (values < inputs) {
+        unit.inputValues[values] = value;
+      } else {
+        unit.desiredValues[values - inputs] = value;
+      }
+      values++;
+      from = to + 1;
+    }
+    if (values != inputs + outputs) {
+      throw new IllegalArgumentException(format("Line {0} of {1} needs {2} values!", lineNumber, file,
+        inputs + outputs));
+    }
+    return unit;
+  }
+
+  private float parse(String line, int from, int to) {
+    try {
+      return Float.parseFloat(line.substring(from, to).trim());
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException(format("Line {0} of {1} has no number at column {2}!", lineNumber, file,
+        from + 1), ex);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (reader != null) {
+      reader.close();
+      reader = null;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package de.ecr.ai.model.test;
+
+import de.ecr.ai.model.NeuralNetwork;
+
+/**
+ * Changes the learning gradient (learning rate) from generation to generation of
+ * {@link NeuralNetwork#evolute(int, TrainingSession, float)}. Set it as {@link TrainingSession#learningRateSchedule}.
+ *
+ * @author Bjoern Frohberg
+ */
+public interface ILearningRateSchedule {
+
+  /**
+   * Keeps the learning gradient passed to evolute
+   */
+  ILearningRateSchedule CONSTANT = (learningGradient, generation, loss) -> learningGradient;
+
+  /**
+   * Returns the learning gradient of the next generation
+   *
+   * @param learningGradient the learning gradient passed to evolute
+   * @param generation       the generations of the network so far (restored by
+   *                         {@link NeuralNetwork#resume(TrainingSession)}), 0 (zero) for the first of a new network
+   * @param loss             the loss of the last generation (the validation loss, if the session has validation
+   *                         units), {@link Float#NaN} before the first generation
+   */
+  float getLearningGradient(float learningGradient, int generation, float loss);
+
+  /**
+   * Returns the state a schedule keeps from generation to generation, so it is stored in a checkpoint. Schedules
+   * only depending on the generation have none.
+   */
+  default float[] getState() {
+    return new float[0];
+  }
+
+  /**
+   * Restores a state returned by {@link #getState()}, when a training resumes from a checkpoint
+   */
+  default void setState(float[] state) {
+  }
+
+  /**
+   * Multiplies the learning gradient by the factor after each number of generations
+   */
+  static ILearningRateSchedule step(int generations, float factor) {
+    if (generations < 1) {
+      throw new IllegalArgumentException("generations must be 1 or greater!");
+    }
+    return (learningGradient, generation, loss) ->
+      learningGradient * (float) Math.pow(factor, generation / generations);
+  }
+
+  /**
+   * Multiplies the learning gradient by the decay each generation
+   */
+  static ILearningRateSchedule exponential(float decay) {
+    return (learningGradient, generation, loss) -> learningGradient * (float) Math.pow(decay, generation);
+  }
+
+  /**
+   * Lowers the learning gradient along a half cosine wave down to the minimum within the number of generations and
+   * keeps the minimum after them
+   */
+  static ILearningRateSchedule cosine(int generations, float minimum) {
+    if (generations < 1) {
+      throw new IllegalArgumentException("generations must be 1 or greater!");
+    }
+    return (learningGradient, generation, loss) -> {
+      double progress = Math.min(generation, generations) / (double) generations;
+      return (float) (minimum + (learningGradient - minimum) * 0.5 * (1 + Math.cos(Math.PI * progress)));
+    };
+  }
+}
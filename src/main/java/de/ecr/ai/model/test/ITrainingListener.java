@@ -0,0 +1,42 @@
+package de.ecr.ai.model.test;
+
+import de.ecr.ai.model.NeuralNetwork;
+
+/**
+ * Receives the progress of {@link NeuralNetwork#train(TrainingSession, float)}. Override only the callbacks you need.
+ * <br/>
+ * The {@link TrainingProgress} passed in is reused during training, copy its values if you want to keep them.
+ *
+ * @author Bjoern Frohberg
+ */
+public interface ITrainingListener {
+
+  /**
+   * Reports nothing. The network skips the time measurement for this listener.
+   */
+  ITrainingListener NONE = new ITrainingListener() {
+  };
+
+  /**
+   * Prints the loss and throughput of each generation to the console
+   */
+  ITrainingListener CONSOLE = new ITrainingListener() {
+    @Override
+    public void onGenerationDone(TrainingProgress progress) {
+      System.out.println(String.format("#%d: total error: %.4f, units/sec: %.1f",
+        progress.generation, progress.loss, progress.getUnitsPerSecond()));
+    }
+  };
+
+  /**
+   * Invoked after the weights and biases were adjusted by a batch of test units
+   */
+  default void onBatchDone(TrainingProgress progress) {
+  }
+
+  /**
+   * Invoked after all test units of a session were learned once
+   */
+  default void onGenerationDone(TrainingProgress progress) {
+  }
+}
@@ -0,0 +1,30 @@
+package de.ecr.ai.model.test;
+
+import java.util.List;
+
+/**
+ * Test units of a list in memory. Changes of the list are seen by the next {@link #rewind()}.
+ *
+ * @author Bjoern Frohberg
+ */
+public final class ListDataSource extends RandomAccessDataSource {
+
+  private final List<TestUnit> tests;
+
+  public ListDataSource(List<TestUnit> tests) {
+    if (tests == null) {
+      throw new IllegalArgumentException("Your tests may not be null!");
+    }
+    this.tests = tests;
+  }
+
+  @Override
+  public int size() {
+    return tests.size();
+  }
+
+  @Override
+  protected TestUnit read(int index, TestUnit reuse) {
+    return tests.get(index);
+  }
+}
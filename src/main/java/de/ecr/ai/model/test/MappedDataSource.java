@@ -0,0 +1,175 @@
+package de.ecr.ai.model.test;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+import static java.text.MessageFormat.format;
+
+/**
+ * Test units of a binary file, which is mapped into memory. The file is a sequence of records of fixed width, one
+ * record per test unit: the input values followed by the desired values, each a little-endian float. There is no
+ * header, write such a file by {@link #write(Path, TrainingDataSource)}.<br/>
+ * The operating system loads the pages of the file on demand and drops them again, so the file may be larger than
+ * the heap and the main memory.
+ *
+ * @author Bjoern Frohberg
+ */
+public final class MappedDataSource extends RandomAccessDataSource {
+
+  /**
+   * Largest number of bytes in one mapping, a mapping is limited to 2 GB
+   */
+  private static final int SEGMENT_BYTES = 1 << 30;
+
+  private final int inputs;
+  private final int outputs;
+  private final int size;
+  private final int unitsPerSegment;
+  private FloatBuffer[] segments;
+
+  /**
+   * Maps a file of test units with the given number of input and desired values
+   */
+  public MappedDataSource(Path file, int inputs, int outputs) throws IOException {
+    if (inputs < 1 || outputs < 1) {
+      throw new IllegalArgumentException("inputs and outputs must be 1 or greater!");
+    }
+    this.inputs = inputs;
+    this.outputs = outputs;
+    long recordBytes = (long) (inputs + outputs) * Float.BYTES;
+    if (recordBytes > SEGMENT_BYTES) {
+      throw new IllegalArgumentException(format("A test unit of {0} bytes is too large!", recordBytes));
+    }
+    this.unitsPerSegment = (int) (SEGMENT_BYTES / recordBytes);
+
+    try (FileChannel channel = FileChannel.open(file, READ)) {
+      long bytes = channel.size();
+      if (bytes % recordBytes != 0) {
+        throw new IllegalArgumentException(format("{0} is no file of test units with {1} inputs and {2} outputs!",
+          file, inputs, outputs));
+      }
+      long units = bytes / recordBytes;
+      if (units > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException(format("{0} has more than {1} test units!", file, Integer.MAX_VALUE));
+      }
+      this.size = (int) units;
+
+      // a mapping stays valid after closing the channel
+      segments = new FloatBuffer[(size + unitsPerSegment - 1) / unitsPerSegment];
+      for (int s = 0; s < segments.length; s++) {
+        long offset = (long) s * unitsPerSegment * recordBytes;
+        long length = Math.min(bytes - offset, unitsPerSegment * recordBytes);
+        segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length)
+          .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of input values of each test unit
+   */
+  public int countInputs() {
+    return inputs;
+  }
+
+  /**
+   * Returns the number of desired values of each test unit
+   */
+  public int countOutputs() {
+    return outputs;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  protected TestUnit read(int index, TestUnit reuse) {
+    checkIndex(index);
+    if (segments == null) {
+      throw new IllegalStateException("Data source is closed!");
+    }
+    TestUnit unit = reuse != null ? reuse : new TestUnit();
+    if (unit.inputValues == null || unit.inputValues.length != inputs) {
+      unit.inputValues = new float[inputs];
+    }
+    if (unit.desiredValues == null || unit.desiredValues.length != outputs) {
+      unit.desiredValues = new float[outputs];
+    }
+    FloatBuffer segment = segments[index / unitsPerSegment];
+    int offset = index % unitsPerSegment * (inputs + outputs);
+    for (int i = 0; i < inputs; i++) {
+      unit.inputValues[i] = segment.get(offset + i);
+    }
+    offset += inputs;
+    for (int o = 0; o < outputs; o++) {
+      unit.desiredValues[o] = segment.get(offset + o);
+    }
+    return unit;
+  }
+
+  /**
+   * Drops the mappings, the memory is released as soon as they are garbage collected
+   */
+  @Override
+  public void close() {
+    segments = null;
+  }
+
+  /**
+   * Writes all test units of a source (in order of a generation) into a binary file for this class. Use it to
+   * convert a {@link CsvDataSource} once.
+   *
+   * @return the number of test units written
+   */
+  public static int write(Path file, TrainingDataSource source) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    int units = 0;
+    int inputs = -1;
+    int outputs = -1;
+    try (FileChannel channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, WRITE)) {
+      source.rewind();
+      TestUnit reuse = new TestUnit();
+      for (TestUnit unit = source.next(reuse); unit != null; unit = source.next(reuse)) {
+        if (units == 0) {
+          inputs = unit.inputValues.length;
+          outputs = unit.desiredValues.length;
+        } else if (unit.inputValues.length != inputs || unit.desiredValues.length != outputs) {
+          throw new IllegalArgumentException(format("Test unit {0} differs in size from the first one!", units));
+        }
+        for (float value : unit.inputValues) {
+          buffer = put(channel, buffer, value);
+        }
+        for (float value : unit.desiredValues) {
+          buffer = put(channel, buffer, value);
+        }
+        units++;
+      }
+      flush(channel, buffer);
+    }
+    return units;
+  }
+
+  private static ByteBuffer put(FileChannel channel, ByteBuffer buffer, float value) throws IOException {
+    if (!buffer.hasRemaining()) {
+      flush(channel, buffer);
+    }
+    return buffer.putFloat(value);
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    // cast for Java 8, which has no covariant return types on buffers
+    ((Buffer) buffer).flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    ((Buffer) buffer).clear();
+  }
+}
@@ -0,0 +1,73 @@
+package de.ecr.ai.model.test;
+
+/**
+ * Lowers the learning gradient by a factor, whenever the loss did not improve for a number of generations
+ * (reduce on plateau). It starts over in the first generation of a network. Its state is stored in checkpoints,
+ * so a resumed training keeps the lowered gradient.
+ *
+ * @author Bjoern Frohberg
+ */
+public final class PlateauSchedule implements ILearningRateSchedule {
+
+  private final float factor;
+  private final int patience;
+  private final float minImprovement;
+  private final float minimum;
+  private float scale = 1;
+  private float best = Float.POSITIVE_INFINITY;
+  private int waiting;
+
+  /**
+   * @param factor         multiplies the learning gradient on a plateau, between 0 and 1 (exclusive)
+   * @param patience       number of generations without improvement, which make a plateau
+   * @param minImprovement a loss needs to be lower than the best loss by this value to be an improvement
+   * @param minimum        the learning gradient is never lowered below this value (but not raised to it)
+   */
+  public PlateauSchedule(float factor, int patience, float minImprovement, float minimum) {
+    if (!(factor > 0 && factor < 1)) {
+      throw new IllegalArgumentException("factor must be between 0 and 1 (exclusive)!");
+    }
+    if (patience < 1) {
+      throw new IllegalArgumentException("patience must be 1 or greater!");
+    }
+    this.factor = factor;
+    this.patience = patience;
+    this.minImprovement = minImprovement;
+    this.minimum = minimum;
+  }
+
+  @Override
+  public float getLearningGradient(float learningGradient, int generation, float loss) {
+    if (generation == 0) {
+      scale = 1;
+      best = Float.POSITIVE_INFINITY;
+      waiting = 0;
+    }
+    if (!Float.isNaN(loss)) {
+      if (loss < best - minImprovement) {
+        best = loss;
+        waiting = 0;
+      } else if (++waiting >= patience) {
+        scale *= factor;
+        waiting = 0;
+      }
+    }
+    // a learning gradient below the minimum is never raised
+    return Math.min(learningGradient, Math.max(minimum, learningGradient * scale));
+  }
+
+  @Override
+  public float[] getState() {
+    return new float[]{scale, best, waiting};
+  }
+
+  @Override
+  public void setState(float[] state) {
+    if (state.length != 3) {
+      throw new IllegalArgumentException("The state is not the state of a PlateauSchedule!");
+    }
+    scale = state[0];
+    best = state[1];
+    waiting = (int) state[2];
+  }
+}
@@ -0,0 +1,290 @@
+package de.ecr.ai.model.test;
+
+import de.ecr.ai.model.Action;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the test units of another {@link TrainingDataSource} ahead on a background thread, while the network
+ * trains on the units read before. So reading a file and preparing the units is hidden behind the training.<br/>
+ * The units are read in chunks into a fixed pool of units and handed over by bounded queues: the reading thread
+ * waits for a free chunk, if it is ahead by the given number of chunks, and the training waits for a filled chunk,
+ * if the reading is slower.<br/>
+ * The reading thread is started by the first rewind and reads one generation per rewind, till the source is
+ * closed. Each unit handed out by {@link #next(TestUnit)} is a copy, {@link #nextChunk()} hands out the units of
+ * a filled chunk without copying them.
+ *
+ * @author Bjoern Frohberg
+ */
+public final class PrefetchingDataSource implements TrainingDataSource {
+
+  private final TrainingDataSource source;
+  private final Action<TestUnit> preprocessor;
+  private final int chunkSize;
+  private final BlockingQueue<Chunk> free;
+  private final BlockingQueue<Chunk> filled;
+  private final Object lock = new Object();
+  private Thread producer;
+
+  /**
+   * The generation requested by the last rewind, chunks of an earlier generation are thrown away
+   */
+  private volatile long generation;
+  private Chunk current;
+  private int position;
+
+  /**
+   * Reads chunks of units ahead, at most the given number of chunks
+   */
+  public PrefetchingDataSource(TrainingDataSource source, int chunkSize, int chunks) {
+    this(source, chunkSize, chunks, null);
+  }
+
+  /**
+   * Reads chunks of units ahead, at most the given number of chunks. The preprocessor (if not {@code null}) runs on
+   * the reading thread for each unit, after it was copied out of the source. Use it to decode or normalize the
+   * values.
+   */
+  public PrefetchingDataSource(TrainingDataSource source, int chunkSize, int chunks, Action<TestUnit> preprocessor) {
+    if (source == null) {
+      throw new IllegalArgumentException("Your source may not be null!");
+    }
+    if (chunkSize < 1 || chunks < 1) {
+      throw new IllegalArgumentException("chunkSize and chunks must be 1 or greater!");
+    }
+    this.source = source;
+    this.preprocessor = preprocessor;
+    this.chunkSize = chunkSize;
+    // one more chunk than queued for the one handed out
+    this.free = new ArrayBlockingQueue<>(chunks + 1);
+    this.filled = new ArrayBlockingQueue<>(chunks + 1);
+    for (int c = 0; c <= chunks; c++) {
+      free.add(new Chunk(chunkSize));
+    }
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Stops reading the last generation and lets the reading thread rewind the source and read the next generation.
+   * An error of the rewind is thrown by the next call of a next method.
+   */
+  @Override
+  public void rewind() {
+    if (producer == null) {
+      producer = new Thread(this::produce, "training-prefetch");
+      producer.setDaemon(true);
+      producer.start();
+    }
+    // released first, so no chunk of the next generation is thrown away
+    release();
+    synchronized (lock) {
+      generation++;
+      lock.notifyAll();
+    }
+  }
+
+  @Override
+  public TestUnit next(TestUnit reuse) throws IOException {
+    Chunk chunk = nextUnits();
+    return chunk != null ? copy(chunk.units[position++], reuse != null ? reuse : new TestUnit()) : null;
+  }
+
+  /**
+   * Hands out the units of the next filled chunk (or the rest of it after {@link #next(TestUnit)}) without copying
+   * them. They stay valid till the next call of a next method, a rewind or close.
+   *
+   * @return {@code null}, if the generation has no more test units
+   */
+  public List<TestUnit> nextChunk() throws IOException {
+    Chunk chunk = nextUnits();
+    if (chunk == null) {
+      return null;
+    }
+    List<TestUnit> units = Arrays.asList(chunk.units).subList(position, chunk.count);
+    position = chunk.count;
+    return Collections.unmodifiableList(units);
+  }
+
+  /**
+   * Stops the reading thread. The wrapped source is not closed, a rewind starts reading again.
+   */
+  @Override
+  public void close() {
+    Thread producer = this.producer;
+    if (producer != null) {
+      producer.interrupt();
+      try {
+        producer.join();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(ex);
+      }
+      this.producer = null;
+    }
+    release();
+  }
+
+  /**
+   * Returns the chunk with the next unit at {@link #position}, {@code null} at the end of the generation
+   */
+  private Chunk nextUnits() throws IOException {
+    if (producer == null) {
+      rewind();
+    }
+    while (current == null || position >= current.count) {
+      if (current != null && current.last) {
+        return null;
+      }
+      if (current != null) {
+        free.add(current);
+      }
+      current = take();
+      position = 0;
+      if (current.error instanceof IOException) {
+        throw (IOException) current.error;
+      }
+      if (current.error != null) {
+        throw new RuntimeException(current.error);
+      }
+    }
+    return current;
+  }
+
+  private Chunk take() {
+    try {
+      while (true) {
+        Chunk chunk = filled.take();
+        if (chunk.generation == generation) {
+          return chunk;
+        }
+        // read for a generation before the last rewind
+        free.add(chunk);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Gives the chunk handed out and the filled chunks back to the pool
+   */
+  private void release() {
+    if (current != null) {
+      free.add(current);
+      current = null;
+    }
+    filled.drainTo(free);
+  }
+
+  /**
+   * Reads one generation per rewind, till the thread gets interrupted by close
+   */
+  private void produce() {
+    long produced = 0;
+    try {
+      while (true) {
+        synchronized (lock) {
+          while (generation == produced) {
+            lock.wait();
+          }
+          produced = generation;
+        }
+        produce(produced);
+      }
+    } catch (InterruptedException ex) {
+      // stopped by close
+    }
+  }
+
+  /**
+   * Rewinds the source and fills free chunks with its units, till the source has no more or a rewind requests the
+   * next generation
+   */
+  private void produce(long generation) throws InterruptedException {
+    Throwable error = null;
+    try {
+      source.rewind();
+    } catch (IOException | RuntimeException ex) {
+      error = ex;
+    }
+    boolean last = false;
+    while (!last) {
+      Chunk chunk = free.take();
+      chunk.count = 0;
+      chunk.error = error;
+      last = error != null;
+      try {
+        while (!last && chunk.count < chunk.units.length && generation == this.generation) {
+          TestUnit unit = source.next(chunk.units[chunk.count]);
+          if (unit == null) {
+            last = true;
+            break;
+          }
+          TestUnit copy = copy(unit, chunk.units[chunk.count]);
+          if (preprocessor != null) {
+            preprocessor.invoke(copy);
+          }
+          chunk.count++;
+        }
+      } catch (IOException | RuntimeException ex) {
+        chunk.error = ex;
+        last = true;
+      }
+      if (generation != this.generation) {
+        free.add(chunk);
+        return;
+      }
+      chunk.generation = generation;
+      chunk.last = last;
+      // never blocks, the queue takes all chunks
+      filled.add(chunk);
+    }
+  }
+
+  /**
+   * Copies the values of a unit into another unit, if they are not the same
+   */
+  private static TestUnit copy(TestUnit unit, TestUnit target) {
+    if (unit != target) {
+      target.inputValues = copy(unit.inputValues, target.inputValues);
+      target.desiredValues = copy(unit.desiredValues, target.desiredValues);
+    }
+    return target;
+  }
+
+  private static float[] copy(float[] values, float[] target) {
+    if (target == null || target.length != values.length) {
+      target = new float[values.length];
+    }
+    System.arraycopy(values, 0, target, 0, values.length);
+    return target;
+  }
+
+  /**
+   * Units read ahead by the producer
+   */
+  private static final class Chunk {
+
+    private final TestUnit[] units;
+    private int count;
+    private boolean last;
+    private Throwable error;
+    private long generation;
+
+    Chunk(int size) {
+      units = new TestUnit[size];
+      for (int u = 0; u < size; u++) {
+        units[u] = new TestUnit();
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package de.ecr.ai.model.test;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * A {@link TrainingDataSource}, which can read any of its test units by index. It can be shuffled: each generation
+ * runs through a new permutation of the indices, the test units themselves are not moved or copied.
+ *
+ * @author Bjoern Frohberg
+ */
+public abstract class RandomAccessDataSource implements TrainingDataSource {
+
+  private boolean shuffled;
+  private long seed;
+  private long epoch;
+  private int[] permutation;
+  private int position;
+
+  /**
+   * Returns the number of test units
+   */
+  public abstract int size();
+
+  /**
+   * Returns the test unit at an index, see {@link #next(TestUnit)} for the reused unit
+   */
+  protected abstract TestUnit read(int index, TestUnit reuse) throws IOException;
+
+  /**
+   * Runs through the test units in a new random order each generation, starting with the next {@link #rewind()}.
+   * The same seed gives the same orders.
+   */
+  public void shuffle(long seed) {
+    this.shuffled = true;
+    this.seed = seed;
+    this.epoch = 0;
+  }
+
+  /**
+   * Returns the number of shuffled generations so far
+   */
+  public long getEpoch() {
+    return epoch;
+  }
+
+  /**
+   * Continues the shuffled orders after the given number of generations, like for a training resumed from a
+   * checkpoint
+   */
+  public void setEpoch(long epoch) {
+    this.epoch = epoch;
+  }
+
+  @Override
+  public void rewind() {
+    position = 0;
+    if (!shuffled) {
+      permutation = null;
+      return;
+    }
+    int size = size();
+    if (permutation == null || permutation.length != size) {
+      permutation = new int[size];
+    }
+    for (int i = 0; i < size; i++) {
+      permutation[i] = i;
+    }
+    // each order depends on seed and epoch only, so it can be repeated after a resume
+    SplittableRandom random = new SplittableRandom(seed + epoch).split();
+    epoch++;
+    // Fisher-Yates
+    for (int i = size - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int index = permutation[i];
+      permutation[i] = permutation[j];
+      permutation[j] = index;
+    }
+  }
+
+  @Override
+  public TestUnit next(TestUnit reuse) throws IOException {
+    if (position >= size()) {
+      return null;
+    }
+    int index = permutation != null ? permutation[position] : position;
+    position++;
+    return read(index, reuse);
+  }
+
+  /**
+   * Throws an {@link IndexOutOfBoundsException}, if the index is not one of a test unit
+   */
+  protected final void checkIndex(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException(format("Test unit {0} of {1}", index, size()));
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package de.ecr.ai.model.test;
+
+import de.ecr.ai.model.NeuralNetwork;
+
+import java.io.IOException;
+
+/**
+ * Delivers the {@link TestUnit}s of a generation one after another, so {@link NeuralNetwork#train(TrainingSession,
+ * float)} only keeps one batch in memory. Set it as {@link TrainingSession#source}.
+ * <ul>
+ * <li>{@link ListDataSource} for test units in memory</li>
+ * <li>{@link MappedDataSource} for a binary file of float records, larger than the heap</li>
+ * <li>{@link CsvDataSource} for a text file with one test unit per line</li>
+ * </ul>
+ * A source is not thread-safe, train one network at a time with it.
+ *
+ * @author Bjoern Frohberg
+ */
+public interface TrainingDataSource extends AutoCloseable {
+
+  /**
+   * Starts a new generation at the first test unit. A shuffling source changes the order of its test units.
+   */
+  void rewind() throws IOException;
+
+  /**
+   * Returns the next test unit or {@code null} after the last one of a generation.<br/>
+   * A source reading a file fills the given unit and reuses its arrays, if they have the right size. A source in
+   * memory returns its own units. Either way, do not change the returned unit.
+   */
+  TestUnit next(TestUnit reuse) throws IOException;
+
+  /**
+   * Releases files or mappings of this source. Nothing to do by default.
+   */
+  @Override
+  default void close() throws IOException {
+  }
+}
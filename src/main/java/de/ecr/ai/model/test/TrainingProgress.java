@@ -0,0 +1,81 @@
+package de.ecr.ai.model.test;
+
+import de.ecr.ai.model.NeuralNetwork;
+
+/**
+ * Progress of a training generation, handed to an {@link ITrainingListener}. Loss values are the mean loss of the
+ * test units learned.
+ *
+ * @author Bjoern Frohberg
+ */
+public final class TrainingProgress {
+
+  /**
+   * The generation of the {@link NeuralNetwork} being trained
+   */
+  public long generation;
+
+  /**
+   * Index of the last batch in this generation, starting with 0 (zero)
+   */
+  public int batch;
+
+  /**
+   * Number of test units in the last batch
+   */
+  public int batchUnits;
+
+  /**
+   * Mean loss of the test units in the last batch
+   */
+  public float batchLoss;
+
+  /**
+   * Nanoseconds spent on the last batch
+   */
+  public long batchNanos;
+
+  /**
+   * Number of test units learned in this generation so far
+   */
+  public int units;
+
+  /**
+   * Mean loss of the test units learned in this generation so far. This is the {@link #crossEntropy} for a
+   * softmax output layer, otherwise the {@link #meanSquaredError}.
+   */
+  public float loss;
+
+  /**
+   * Mean squared error of the test units learned in this generation so far
+   */
+  public float meanSquaredError;
+
+  /**
+   * Mean cross-entropy of the test units learned in this generation so far, 0 (zero) without softmax output layer
+   */
+  public float crossEntropy;
+
+  /**
+   * Nanoseconds spent on this generation so far
+   */
+  public long elapsedNanos;
+
+  /**
+   * Returns the test units learned per second in the last batch
+   */
+  public float getBatchUnitsPerSecond() {
+    return perSecond(batchUnits, batchNanos);
+  }
+
+  /**
+   * Returns the test units learned per second in this generation so far
+   */
+  public float getUnitsPerSecond() {
+    return perSecond(units, elapsedNanos);
+  }
+
+  private static float perSecond(int units, long nanos) {
+    return nanos > 0 ? units * 1e9f / nanos : 0;
+  }
+}
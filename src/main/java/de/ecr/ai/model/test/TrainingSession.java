@@ -3,8 +3,13 @@ package de.ecr.ai.model.test;
 import de.ecr.ai.model.Action;
 import de.ecr.ai.model.NeuralNetwork;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 /**
  * A bunch of {@link TestUnit}s, a valid generation run-through collected in this class.
@@ -18,6 +23,12 @@ public final class TrainingSession {
      */
     public final List<TestUnit> tests = new ArrayList<>();
 
+    /**
+     * Test units too many for {@link #tests}. If set, the {@link NeuralNetwork} reads its test units from here
+     * instead, batch by batch. The network does not close it.
+     */
+    public TrainingDataSource source;
+
     /**
      * You will need to know, how good your network is. This values represents how wrong<br/>
      * your network actual is.<br/>
@@ -40,6 +51,8 @@ public final class TrainingSession {
      * until your total error value becomes into this range.
      * </li>
      * </ul>
+     * It is the mean loss of all test units in the last generation: the mean squared error, or the cross-entropy
+     * for a softmax output layer.
      */
     public float totalError;
 
@@ -49,13 +62,147 @@ public final class TrainingSession {
      */
     public ITrainingStop trainingStopDefinition;
 
+    /**
+     * Changes the learning gradient from generation to generation of an evolution. Default is
+     * {@link ILearningRateSchedule#CONSTANT}.
+     */
+    public ILearningRateSchedule learningRateSchedule = ILearningRateSchedule.CONSTANT;
+
+    /**
+     * Test units, which are not learned, but tested after each generation of an evolution to get the
+     * {@link #validationError}. Use {@link #splitValidation(float, long)} to take them out of {@link #tests}.
+     */
+    public final List<TestUnit> validationTests = new ArrayList<>();
+
+    /**
+     * Validation units too many for {@link #validationTests}. If set, they are read from here instead.
+     */
+    public TrainingDataSource validationSource;
+
+    /**
+     * The mean loss of the validation units after the last generation, {@link Float#NaN} without validation units
+     */
+    public float validationError = Float.NaN;
+
+    /**
+     * Stops an evolution, if the loss did not improve by {@link #minImprovement} for this number of generations.
+     * The loss is the {@link #validationError}, if there are validation units, else the {@link #totalError}.
+     * Default is 0 (zero), which never stops on a plateau.
+     */
+    public int patience;
+
+    /**
+     * A loss needs to be lower than the best loss of the evolution by this value to count as improvement
+     */
+    public float minImprovement;
+
+    /**
+     * Stops an evolution after the generation, which exceeds this number of milliseconds. Default is 0 (zero), which
+     * does not limit the time.
+     */
+    public long maxMillis;
+
+    /**
+     * If set, an evolution writes a checkpoint into this file every {@link #checkpointGenerations} generations, in
+     * the background. Use {@link NeuralNetwork#resume(TrainingSession)} to continue a training from it.
+     */
+    public Path checkpointFile;
+
+    /**
+     * Number of generations between two checkpoints, default is 1 (one)
+     */
+    public int checkpointGenerations = 1;
+
+    /**
+     * Number of {@link TestUnit}s to learn from, before weights and biases will be adjusted once by the average
+     * of their deltas (mini-batch). Default is 1 (one), which adjusts after every test unit.
+     */
+    public int batchSize = 1;
+
+    /**
+     * Number of threads to share the {@link TestUnit}s of one batch. Default is 1 (one), which trains on the calling
+     * thread. The result only depends on the number of threads, so use a fixed value for reproducible training and
+     * a {@link #batchSize} of at least this number.
+     */
+    public int threads = 1;
+
+    /**
+     * Number of batches to read ahead on a background thread, while the network trains (see
+     * {@link PrefetchingDataSource}). Default is 0 (zero), which reads each batch right before it is learned.
+     * Use it to hide the reading of a {@link #source} behind the training. An evolution reads all its generations
+     * on the same thread.
+     */
+    public int prefetchBatches;
+
+    /**
+     * Receives loss, throughput and timing of each batch and generation. Default is
+     * {@link ITrainingListener#NONE}, which reports nothing and costs nothing.
+     */
+    public ITrainingListener listener = ITrainingListener.NONE;
+
     @SuppressWarnings("WeakerAccess")
     public Action<NeuralNetwork> onGenerationDone;
 
+    /**
+     * Moves a random part of the {@link #tests} into the {@link #validationTests}, the same seed moves the same tests
+     *
+     * @param fraction part of the tests to move, between 0 and 1
+     */
+    public void splitValidation(float fraction, long seed) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("fraction must be between 0 and 1!");
+        }
+        List<TestUnit> shuffled = new ArrayList<>(tests);
+        Collections.shuffle(shuffled, new Random(seed));
+        int count = Math.round(shuffled.size() * fraction);
+        List<TestUnit> validation = shuffled.subList(0, count);
+        // keep the order of the remaining tests
+        Set<TestUnit> moved = Collections.newSetFromMap(new IdentityHashMap<>());
+        moved.addAll(validation);
+        tests.removeIf(moved::contains);
+        validationTests.addAll(validation);
+    }
+
+    /**
+     * Returns {@code true}, if there are units to validate the network after each generation
+     */
+    public boolean isValidating() {
+        return validationSource != null || !validationTests.isEmpty();
+    }
+
+    /**
+     * Returns {@code true}, if a listener wants to receive the training progress
+     */
+    public boolean isReporting() {
+        ITrainingListener listener = this.listener;
+        return listener != null && listener != ITrainingListener.NONE;
+    }
+
+    /**
+     * Invoke batch end
+     */
+    public void notifyBatchDone(TrainingProgress progress) {
+        ITrainingListener listener = this.listener;
+        if (listener != null) {
+            listener.onBatchDone(progress);
+        }
+    }
+
     /**
      * Invoke training end
      */
     public void notifyTrainingGenerationDone(NeuralNetwork neuralNetwork) {
+        notifyTrainingGenerationDone(neuralNetwork, null);
+    }
+
+    /**
+     * Invoke training end, the listener receives the progress of the generation (if given)
+     */
+    public void notifyTrainingGenerationDone(NeuralNetwork neuralNetwork, TrainingProgress progress) {
+        ITrainingListener listener = this.listener;
+        if (listener != null && progress != null) {
+            listener.onGenerationDone(progress);
+        }
         Action<NeuralNetwork> handler = this.onGenerationDone;
         if (handler != null) {
             handler.invoke(neuralNetwork);
@@ -0,0 +1,99 @@
+package de.ecr.ai.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts positive values in buckets, which grow exponentially: 8 buckets for each power of two, so a
+ * percentile is at most 12.5 % too high. Values below 16 are counted exactly. Recording is lock-free
+ * and does not allocate.
+ *
+ * @author Bjoern Frohberg
+ */
+public final class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+
+  /**
+   * Counts a value, negative values are counted as 0 (zero)
+   */
+  public void record(long value) {
+    value = Math.max(0, value);
+    counts.incrementAndGet(index(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public double getMean() {
+    long n = count.get();
+    return n > 0 ? (double) sum.get() / n : 0;
+  }
+
+  /**
+   * Returns the highest value of the bucket, which contains the percentile (e.g. 0.99 for p99).
+   * Returns 0 (zero) without any values.
+   */
+  public long getPercentile(double percentile) {
+    if (percentile < 0 || percentile > 1) {
+      throw new IllegalArgumentException("percentile must be between 0 and 1!");
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile * count.get()));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return upperBound(i);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the non-empty buckets as pairs of lowest value and count
+   */
+  public List<long[]> getBuckets() {
+    List<long[]> buckets = new ArrayList<>();
+    for (int i = 0; i < counts.length(); i++) {
+      long n = counts.get(i);
+      if (n > 0) {
+        buckets.add(new long[]{lowerBound(i), n});
+      }
+    }
+    return buckets;
+  }
+
+  static int index(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  static long lowerBound(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+  }
+
+  static long upperBound(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    return ((long) (SUB_BUCKETS + index % SUB_BUCKETS + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,176 @@
+package de.ecr.ai.server;
+
+import de.ecr.ai.model.CompiledNetwork;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces concurrent requests into batches. The first request of a batch waits at most the max delay for
+ * further requests, until the batch holds the max batch size of rows. Then the whole batch is tested at once by
+ * {@link CompiledNetwork#testBatch(float[], int, float[])} and each request receives its rows of the outputs.
+ *
+ * @author Bjoern Frohberg
+ */
+final class MicroBatcher {
+
+  private final CompiledNetwork network;
+  private final int maxBatchSize;
+  private final long maxDelayNanos;
+  private final Histogram batchSizes;
+  private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+  private final Thread[] workers;
+  private volatile boolean running = true;
+
+  MicroBatcher(CompiledNetwork network, ScoringSettings settings, Histogram batchSizes) {
+    if (settings.maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize must be 1 or greater!");
+    }
+    if (settings.maxDelayMicros < 0) {
+      throw new IllegalArgumentException("maxDelayMicros must be positive or 0 (zero)!");
+    }
+    if (settings.workers < 1) {
+      throw new IllegalArgumentException("workers must be 1 or greater!");
+    }
+    this.network = network;
+    this.maxBatchSize = settings.maxBatchSize;
+    this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(settings.maxDelayMicros);
+    this.batchSizes = batchSizes;
+    this.workers = new Thread[settings.workers];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Thread(this::work, "scoring-batcher-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Queues rows of input values to be tested with the next batch
+   *
+   * @param inputValues rows x input neurons values, one row after another
+   * @return the future output values, rows x output neurons values
+   */
+  CompletableFuture<float[]> submit(float[] inputValues, int rows) {
+    Request request = new Request(inputValues, rows);
+    // checked and queued under the lock of stop, so no request is queued after the queue was drained
+    synchronized (this) {
+      if (running) {
+        queue.add(request);
+        return request.result;
+      }
+    }
+    request.result.completeExceptionally(new IllegalStateException("Scoring server is stopped!"));
+    return request.result;
+  }
+
+  /**
+   * Stops the workers and fails the requests left in the queue
+   */
+  void stop() {
+    synchronized (this) {
+      running = false;
+    }
+    for (Thread worker : workers) {
+      worker.interrupt();
+    }
+    for (Thread worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    Request request;
+    while ((request = queue.poll()) != null) {
+      request.result.completeExceptionally(new IllegalStateException("Scoring server is stopped!"));
+    }
+  }
+
+  private void work() {
+    List<Request> batch = new ArrayList<>(maxBatchSize);
+    Request next = null;
+    try {
+      while (running) {
+        Request first = next != null ? next : queue.take();
+        next = null;
+        batch.add(first);
+        int rows = first.rows;
+
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (rows < maxBatchSize) {
+          long wait = deadline - System.nanoTime();
+          Request request = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+          if (request == null) {
+            break;
+          }
+          if (rows + request.rows > maxBatchSize) {
+            // does not fit anymore, it starts the next batch
+            next = request;
+            break;
+          }
+          batch.add(request);
+          rows += request.rows;
+        }
+
+        test(batch, rows);
+        batch.clear();
+      }
+    } catch (InterruptedException ex) {
+      // stopped
+    } finally {
+      for (Request request : batch) {
+        request.result.completeExceptionally(new IllegalStateException("Scoring server is stopped!"));
+      }
+      if (next != null) {
+        next.result.completeExceptionally(new IllegalStateException("Scoring server is stopped!"));
+      }
+    }
+  }
+
+  private void test(List<Request> batch, int rows) {
+    int inputs = network.countInputs();
+    int outputs = network.countOutputs();
+    try {
+      float[] inputValues = new float[rows * inputs];
+      int offset = 0;
+      for (Request request : batch) {
+        System.arraycopy(request.inputValues, 0, inputValues, offset, request.inputValues.length);
+        offset += request.inputValues.length;
+      }
+
+      float[] outputValues = network.testBatch(inputValues, rows);
+      batchSizes.record(rows);
+
+      offset = 0;
+      for (Request request : batch) {
+        int length = request.rows * outputs;
+        float[] result = new float[length];
+        System.arraycopy(outputValues, offset, result, 0, length);
+        offset += length;
+        request.result.complete(result);
+      }
+    } catch (Throwable ex) {
+      // even an error like running out of memory answers the requests, the worker goes on with the next batch
+      for (Request request : batch) {
+        request.result.completeExceptionally(ex);
+      }
+    }
+  }
+
+  private static final class Request {
+
+    private final float[] inputValues;
+    private final int rows;
+    private final CompletableFuture<float[]> result = new CompletableFuture<>();
+
+    Request(float[] inputValues, int rows) {
+      this.inputValues = inputValues;
+      this.rows = rows;
+    }
+  }
+}
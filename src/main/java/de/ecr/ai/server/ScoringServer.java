@@ -0,0 +1,420 @@
+package de.ecr.ai.server;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.ecr.ai.model.CompiledNetwork;
+import de.ecr.ai.model.NeuralNetwork;
+import de.ecr.ai.model.neuron.InputNeuron;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * A small embeddable HTTP server to score feature vectors by a {@link CompiledNetwork}. Concurrent requests are
+ * coalesced into micro-batches (see {@link ScoringSettings#maxBatchSize} and {@link ScoringSettings#maxDelayMicros}).
+ * <ul>
+ * <li>{@code POST /predict} with {@code Content-Type: application/json} takes one row of input values
+ * {@code [0.1, 0.5]} or many rows {@code [[0.1, 0.5], [1, 0]]} and answers the output values in the same shape.</li>
+ * <li>{@code POST /predict} with any other content type takes rows of little-endian floats and answers the
+ * output rows as little-endian floats.</li>
+ * <li>{@code GET /metrics} answers json with request count, latency percentiles in microseconds and the
+ * histogram of batch sizes.</li>
+ * </ul>
+ * Requests are handled by virtual threads, if the Java runtime provides them, otherwise by a cached thread pool.
+ *
+ * @author Bjoern Frohberg
+ */
+public final class ScoringServer implements AutoCloseable {
+
+  private static final JsonFactory FACTORY = new JsonFactory()
+    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+    .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+  private static final String JSON = "application/json";
+  private static final String BINARY = "application/octet-stream";
+
+  private final CompiledNetwork network;
+  private final int maxRequestBytes;
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final MicroBatcher batcher;
+  private final Histogram latencies = new Histogram();
+  private final Histogram batchSizes = new Histogram();
+
+  /**
+   * Compiles the network and starts serving it, see {@link #ScoringServer(CompiledNetwork, ScoringSettings)}
+   */
+  public ScoringServer(NeuralNetwork network, ScoringSettings settings) throws IOException {
+    this(network.compile(), settings);
+  }
+
+  /**
+   * Starts serving a compiled network
+   */
+  public ScoringServer(CompiledNetwork network, ScoringSettings settings) throws IOException {
+    if (settings.maxRequestBytes < 1) {
+      throw new IllegalArgumentException("maxRequestBytes must be 1 or greater!");
+    }
+    this.network = network;
+    this.maxRequestBytes = settings.maxRequestBytes;
+    this.batcher = new MicroBatcher(network, settings, batchSizes);
+    try {
+      this.server = HttpServer.create(new InetSocketAddress(settings.host, settings.port), 0);
+    } catch (IOException ex) {
+      batcher.stop();
+      throw ex;
+    }
+    this.executor = newExecutor();
+    server.setExecutor(executor);
+    server.createContext("/predict", this::predict);
+    server.createContext("/metrics", this::metrics);
+    server.start();
+  }
+
+  /**
+   * Returns the port the server listens on, useful for a server started on port 0 (zero)
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Returns the microseconds from receiving a prediction request until its answer is ready to be written
+   */
+  public Histogram getLatencies() {
+    return latencies;
+  }
+
+  /**
+   * Returns the number of rows tested together per batch
+   */
+  public Histogram getBatchSizes() {
+    return batchSizes;
+  }
+
+  /**
+   * Stops the server, queued requests are answered with an error
+   */
+  @Override
+  public void close() {
+    server.stop(0);
+    batcher.stop();
+    executor.shutdown();
+  }
+
+  /**
+   * Uses a virtual thread per request on Java 21 or newer, otherwise a cached pool of daemon threads
+   */
+  private static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException ex) {
+      return Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "scoring-request");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  private void predict(HttpExchange exchange) throws IOException {
+    long start = System.nanoTime();
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        respond(exchange, 405, "Use POST to predict!");
+        return;
+      }
+      String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+      boolean json = contentType != null && contentType.startsWith(JSON);
+
+      String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+      if (contentLength != null && isTooLarge(contentLength)) {
+        respond(exchange, 413, format("Request body is larger than {0} bytes!", maxRequestBytes));
+        return;
+      }
+
+      boolean singleRow = false;
+      float[] inputValues;
+      try (InputStream in = new LimitedInputStream(exchange.getRequestBody(), maxRequestBytes)) {
+        if (json) {
+          JsonRows rows = readJson(in);
+          singleRow = rows.single;
+          inputValues = rows.values;
+        } else {
+          inputValues = readBinary(in);
+        }
+        for (float value : inputValues) {
+          InputNeuron.requireNormalized(value);
+        }
+      } catch (RequestTooLargeException ex) {
+        respond(exchange, 413, ex.getMessage());
+        return;
+      } catch (IllegalArgumentException | IOException ex) {
+        if (ex.getCause() instanceof RequestTooLargeException) {
+          // wrapped by the json parser
+          respond(exchange, 413, ex.getCause().getMessage());
+        } else {
+          respond(exchange, 400, ex.getMessage());
+        }
+        return;
+      }
+
+      float[] outputValues;
+      try {
+        outputValues = batcher.submit(inputValues, inputValues.length / network.countInputs()).get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        respond(exchange, 503, "Interrupted!");
+        return;
+      } catch (ExecutionException ex) {
+        respond(exchange, 500, String.valueOf(ex.getCause().getMessage()));
+        return;
+      }
+
+      byte[] body;
+      if (json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeJson(out, outputValues, singleRow);
+        body = out.toByteArray();
+      } else {
+        ByteBuffer out = ByteBuffer.allocate(outputValues.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        out.asFloatBuffer().put(outputValues);
+        body = out.array();
+      }
+      // recorded before the client gets the answer, so its next call of the metrics counts this request
+      latencies.record((System.nanoTime() - start) / 1000);
+      respond(exchange, 200, json ? JSON : BINARY, body);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private boolean isTooLarge(String contentLength) {
+    try {
+      return Long.parseLong(contentLength.trim()) > maxRequestBytes;
+    } catch (NumberFormatException ex) {
+      return false;
+    }
+  }
+
+  private void metrics(HttpExchange exchange) throws IOException {
+    try {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      try (JsonGenerator generator = FACTORY.createGenerator(body)) {
+        generator.writeStartObject();
+        generator.writeNumberField("requests", latencies.getCount());
+        generator.writeNumberField("batches", batchSizes.getCount());
+        generator.writeFieldName("latencyMicros");
+        writeHistogram(generator, latencies);
+        generator.writeFieldName("batchSize");
+        writeHistogram(generator, batchSizes);
+        generator.writeEndObject();
+      }
+      respond(exchange, 200, JSON, body.toByteArray());
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void writeHistogram(JsonGenerator generator, Histogram histogram) throws IOException {
+    generator.writeStartObject();
+    generator.writeNumberField("count", histogram.getCount());
+    generator.writeNumberField("mean", histogram.getMean());
+    generator.writeNumberField("p50", histogram.getPercentile(0.5));
+    generator.writeNumberField("p90", histogram.getPercentile(0.9));
+    generator.writeNumberField("p99", histogram.getPercentile(0.99));
+    generator.writeArrayFieldStart("buckets");
+    for (long[] bucket : histogram.getBuckets()) {
+      generator.writeStartArray();
+      generator.writeNumber(bucket[0]);
+      generator.writeNumber(bucket[1]);
+      generator.writeEndArray();
+    }
+    generator.writeEndArray();
+    generator.writeEndObject();
+  }
+
+  /**
+   * Reads one row {@code [..]} or many rows {@code [[..]]} of input values
+   */
+  private JsonRows readJson(InputStream in) throws IOException {
+    try (JsonParser parser = FACTORY.createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new IllegalArgumentException("Json of input values must be an array!");
+      }
+      JsonToken token = parser.nextToken();
+      if (token != JsonToken.START_ARRAY) {
+        return new JsonRows(readRow(parser, token), true);
+      }
+      int inputs = network.countInputs();
+      float[] values = new float[16 * inputs];
+      int count = 0;
+      while (token == JsonToken.START_ARRAY) {
+        if ((count + 1) * inputs > values.length) {
+          values = Arrays.copyOf(values, values.length * 2);
+        }
+        System.arraycopy(readRow(parser, parser.nextToken()), 0, values, count++ * inputs, inputs);
+        token = parser.nextToken();
+      }
+      if (token != JsonToken.END_ARRAY || count == 0) {
+        throw new IllegalArgumentException("Json of input values must be an array of arrays!");
+      }
+      return new JsonRows(Arrays.copyOf(values, count * inputs), false);
+    }
+  }
+
+  /**
+   * Reads numbers until the end of the current array, starting at the given token
+   */
+  private float[] readRow(JsonParser parser, JsonToken token) throws IOException {
+    float[] row = new float[network.countInputs()];
+    int count = 0;
+    while (token != JsonToken.END_ARRAY) {
+      if (token == null || !token.isNumeric()) {
+        throw new IllegalArgumentException("Unexpected json token in input values: " + token);
+      }
+      if (count == row.length) {
+        throw new IllegalArgumentException(format("A row must have {0} input values!", row.length));
+      }
+      row[count++] = parser.getFloatValue();
+      token = parser.nextToken();
+    }
+    if (count != row.length) {
+      throw new IllegalArgumentException(format("A row must have {0} input values!", row.length));
+    }
+    return row;
+  }
+
+  private float[] readBinary(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      bytes.write(buffer, 0, read);
+    }
+    int rowBytes = network.countInputs() * Float.BYTES;
+    if (bytes.size() == 0 || bytes.size() % rowBytes != 0) {
+      throw new IllegalArgumentException(format("Binary input values must be rows of {0} bytes!", rowBytes));
+    }
+    float[] values = new float[bytes.size() / Float.BYTES];
+    ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+    return values;
+  }
+
+  private void writeJson(OutputStream out, float[] outputValues, boolean singleRow) throws IOException {
+    int outputs = network.countOutputs();
+    try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+      if (!singleRow) {
+        generator.writeStartArray();
+      }
+      for (int offset = 0; offset < outputValues.length; offset += outputs) {
+        generator.writeStartArray();
+        for (int o = 0; o < outputs; o++) {
+          generator.writeNumber(outputValues[offset + o]);
+        }
+        generator.writeEndArray();
+      }
+      if (!singleRow) {
+        generator.writeEndArray();
+      }
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+    respond(exchange, status, "text/plain; charset=utf-8", String.valueOf(message).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void respond(HttpExchange exchange, int status, String contentType, byte[] body)
+    throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  /**
+   * Fails reading a request body, as soon as it is longer than the limit
+   */
+  private static final class LimitedInputStream extends FilterInputStream {
+
+    private final int limit;
+    private long count;
+
+    LimitedInputStream(InputStream in, int limit) {
+      super(in);
+      this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int value = super.read();
+      if (value >= 0) {
+        count(1);
+      }
+      return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int read = super.read(buffer, offset, length);
+      if (read > 0) {
+        count(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long bytes) throws IOException {
+      long skipped = super.skip(bytes);
+      count(skipped);
+      return skipped;
+    }
+
+    private void count(long bytes) throws RequestTooLargeException {
+      count += bytes;
+      if (count > limit) {
+        throw new RequestTooLargeException(format("Request body is larger than {0} bytes!", limit));
+      }
+    }
+  }
+
+  private static final class RequestTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    RequestTooLargeException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Input values read from json, flat one row after another
+   */
+  private static final class JsonRows {
+
+    private final float[] values;
+    private final boolean single;
+
+    JsonRows(float[] values, boolean single) {
+      this.values = values;
+      this.single = single;
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package de.ecr.ai.server;
+
+/**
+ * Settings of a {@link ScoringServer}
+ *
+ * @author Bjoern Frohberg
+ */
+public final class ScoringSettings {
+
+  /**
+   * Host name or address to listen on. Default is localhost, so the server is not reachable from other machines.
+   */
+  public String host = "localhost";
+
+  /**
+   * Port to listen on, 0 (zero) picks a free port. See {@link ScoringServer#getPort()}.
+   */
+  public int port = 8080;
+
+  /**
+   * Most rows tested together in one batch. A single request with more rows is tested on its own.
+   */
+  public int maxBatchSize = 64;
+
+  /**
+   * Most microseconds the first request of a batch waits for more requests to join
+   */
+  public long maxDelayMicros = 1000;
+
+  /**
+   * Number of threads testing batches. Each one tests a batch at a time on the shared compiled network.
+   */
+  public int workers = 1;
+
+  /**
+   * Most bytes of the body of a prediction request, a larger request is answered with status 413
+   */
+  public int maxRequestBytes = 16 << 20;
+}
@@ -1,15 +1,43 @@
 package de.ecr.ai.model;
 
+import de.ecr.ai.model.neuron.Neuron;
 import de.ecr.ai.model.neuron.activation.IActivationFunction;
+import de.ecr.ai.model.optimizer.IOptimizer;
+import de.ecr.ai.model.test.CsvDataSource;
+import de.ecr.ai.model.test.ILearningRateSchedule;
+import de.ecr.ai.model.test.ITrainingListener;
+import de.ecr.ai.model.test.ListDataSource;
+import de.ecr.ai.model.test.MappedDataSource;
+import de.ecr.ai.model.test.PlateauSchedule;
+import de.ecr.ai.model.test.PrefetchingDataSource;
 import de.ecr.ai.model.test.TestUnit;
+import de.ecr.ai.model.test.TrainingDataSource;
+import de.ecr.ai.model.test.TrainingProgress;
 import de.ecr.ai.model.test.TrainingSession;
 import de.ecr.ai.utils.NeuralNetworkUtils;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.Math.round;
@@ -17,13 +45,18 @@ import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.core.Is.is;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * @author Bjoern Frohberg
  */
 public class NeuralNetworkTest {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   /**
    * Test, how to setup a network manually with "build"-method and usage of "readMemory"
    * <p>
@@ -126,6 +159,684 @@ public class NeuralNetworkTest {
     assertThat(memory.generations, is(equalTo(data.generations)));
   }
 
+  /**
+   * Tests, how to save a network into a binary file and restore it with the same predictions
+   */
+  @Test
+  public void testBinaryFile() throws IOException {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.setName("xor");
+    network.build(3, 2, 4, 2, true);
+    network.getLayer(1).setActivation(IActivationFunction.TANGENT_HYPERBOLIC);
+    network.train(createSession(), 0.35f);
+    Path file = folder.newFile("xor.ecnn").toPath();
+
+    // when
+    network.saveToFile(file);
+    NeuralNetwork loaded = new NeuralNetwork();
+    loaded.loadFromFile(file);
+
+    // then
+    assertThat(loaded.getName(), is(equalTo("xor")));
+    assertThat(loaded.getGenerations(), is(equalTo(1L)));
+    assertThat(loaded.getLearningGradient(), is(equalTo(0.35f)));
+    assertThat(Layer.getNeurons(loaded.getLayer(1)).get(3).getActivation(), is(IActivationFunction.TANGENT_HYPERBOLIC));
+    float[] inputs = {0.2f, 0.5f, 1f};
+    assertThat(Arrays.equals(loaded.test(inputs), network.test(inputs)), is(true));
+  }
+
+  /**
+   * Networks built with the same seed get the same weights, on the heap and off-heap
+   */
+  @Test
+  public void testSeedReproducesWeights() {
+    // given
+    NeuralNetwork first = new NeuralNetwork();
+    first.setSeed(42);
+    first.setWeightInitializer(IWeightInitializer.XAVIER);
+    NeuralNetwork second = new NeuralNetwork();
+    second.setSeed(42);
+    second.setWeightInitializer(IWeightInitializer.XAVIER);
+    NeuralNetwork offHeap = new NeuralNetwork();
+    offHeap.setSeed(42);
+    offHeap.setWeightInitializer(IWeightInitializer.XAVIER);
+
+    // when
+    first.build(3, 2, 4, 2, false);
+    second.build(3, 2, 4, 2, false);
+    offHeap.build(3, 2, 4, 2, false, ParameterStorage.OFF_HEAP);
+
+    // then
+    float limit = (float) Math.sqrt(6.0 / (3 + 4));
+    for (int l = 1; l < first.getLayers().size(); l++) {
+      FloatBuffer weights = first.getLayers().get(l).copyWeights();
+      assertThat(second.getLayers().get(l).copyWeights(), is(equalTo(weights)));
+      assertThat(offHeap.getLayers().get(l).copyWeights(), is(equalTo(weights)));
+      for (int w = 0; l == 1 && w < weights.capacity(); w++) {
+        assertThat(Math.abs(weights.get(w)) <= limit, is(true));
+      }
+    }
+    assertThat(Layer.getNeurons(first.getLayers().get(1)).get(3).getName(), is(equalTo("HIDDENhidden/H3")));
+
+    // when (a binding randomized by the same seed)
+    Binding firstBinding = Layer.getNeurons(first.getLayers().get(2)).get(1).getInputBindings().get(2);
+    Binding secondBinding = Layer.getNeurons(second.getLayers().get(2)).get(1).getInputBindings().get(2);
+    firstBinding.randomizeWeight(new SplittableRandom(7));
+    secondBinding.randomizeWeight(new SplittableRandom(7));
+
+    // then
+    assertThat(secondBinding.getWeight(), is(equalTo(firstBinding.getWeight())));
+    assertThat(Math.abs(firstBinding.getWeight()) <= 1, is(true));
+  }
+
+  /**
+   * Layers wider than one block of rows bind every neuron to the parent neurons in order and get the same weights
+   */
+  @Test
+  public void testWideLayersAreBoundInOrder() {
+    // given
+    NeuralNetwork first = new NeuralNetwork();
+    first.setSeed(7);
+    NeuralNetwork second = new NeuralNetwork();
+    second.setSeed(7);
+
+    // when (the layers are bound in several blocks of rows)
+    first.build(300, 1, 600, 300, false);
+    second.build(300, 1, 600, 300, false);
+
+    // then
+    for (int l = 1; l < first.getLayers().size(); l++) {
+      Layer layer = first.getLayers().get(l);
+      List<Neuron> parents = Layer.getNeurons(layer.getParentLayer());
+      assertThat(second.getLayers().get(l).copyWeights(), is(equalTo(layer.copyWeights())));
+      for (Neuron neuron : Layer.getNeurons(layer)) {
+        List<Binding> bindings = neuron.getInputBindings();
+        assertThat(bindings.size(), is(parents.size()));
+        for (int i = 0; i < bindings.size(); i++) {
+          assertThat(bindings.get(i).isParentNeuron(parents.get(i)), is(true));
+          assertThat(bindings.get(i).getWeight(), is(layer.getWeight(neuron.getIndex(), i)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Training from a list, a mapped binary file and a prefetched csv file gives the same loss and weights, and a
+   * shuffled source runs through all of its units
+   */
+  @Test
+  public void testTrainingDataSources() throws IOException {
+    // given
+    Path csv = folder.newFile("units.csv").toPath();
+    Files.write(csv, asList("0, 0.5, 1, 1, 0", "", "1, 0.5, 0, 0, 1", "0.5, 0.5, 0.5, 1, 0"), StandardCharsets.UTF_8);
+    Path binary = folder.newFile("units.bin").toPath();
+    int written = MappedDataSource.write(binary, new CsvDataSource(csv, 3, 2));
+    NeuralNetwork fromList = new NeuralNetwork();
+    fromList.build(3, 1, 4, 2, false);
+    NeuralNetwork fromFile = new NeuralNetwork();
+    fromFile.build(3, 1, 4, 2, false);
+    fromFile.loadMemory(fromList);
+    TrainingSession listSession = new TrainingSession();
+    listSession.batchSize = 2;
+    listSession.tests.add(newTestUnit(asList(0f, 0.5f, 1f), asList(1f, 0f)));
+    listSession.tests.add(newTestUnit(asList(1f, 0.5f, 0f), asList(0f, 1f)));
+    listSession.tests.add(newTestUnit(asList(0.5f, 0.5f, 0.5f), asList(1f, 0f)));
+    TrainingSession fileSession = new TrainingSession();
+    fileSession.batchSize = 2;
+    NeuralNetwork prefetched = new NeuralNetwork();
+    prefetched.build(3, 1, 4, 2, false);
+    prefetched.loadMemory(fromList);
+    TrainingSession prefetchSession = new TrainingSession();
+    prefetchSession.batchSize = 2;
+    prefetchSession.prefetchBatches = 1;
+    prefetchSession.source = new CsvDataSource(csv, 3, 2);
+
+    // when
+    try (MappedDataSource source = new MappedDataSource(binary, 3, 2)) {
+      fileSession.source = source;
+      for (int g = 0; g < 2; g++) {
+        fromList.train(listSession, 0.35f);
+        fromFile.train(fileSession, 0.35f);
+        prefetched.train(prefetchSession, 0.35f);
+      }
+    }
+    prefetchSession.source.close();
+
+    // then
+    assertThat(written, is(3));
+    assertThat(fileSession.totalError, is(listSession.totalError));
+    assertThat(prefetchSession.totalError, is(listSession.totalError));
+    assertThat(Arrays.equals(fromFile.test(0.2f, 0.5f, 1f), fromList.test(0.2f, 0.5f, 1f)), is(true));
+    assertThat(Arrays.equals(prefetched.test(0.2f, 0.5f, 1f), fromList.test(0.2f, 0.5f, 1f)), is(true));
+
+    // when (shuffled by a permutation of the indices)
+    ListDataSource shuffled = new ListDataSource(listSession.tests);
+    shuffled.shuffle(3);
+    List<TestUnit> order = new ArrayList<>();
+    shuffled.rewind();
+    for (TestUnit unit = shuffled.next(null); unit != null; unit = shuffled.next(null)) {
+      order.add(unit);
+    }
+
+    // then
+    assertThat(order.size(), is(3));
+    assertThat(order.containsAll(listSession.tests), is(true));
+  }
+
+  /**
+   * An evolution reads all generations ahead on one thread and trains on the prefetched units like on the list
+   */
+  @Test
+  public void testPrefetchingEvolution() throws IOException {
+    // given
+    List<TestUnit> tests = asList(
+      newTestUnit(asList(0f, 0.5f, 1f), asList(1f, 0f)),
+      newTestUnit(asList(1f, 0.5f, 0f), asList(0f, 1f)),
+      newTestUnit(asList(0.5f, 0.5f, 0.5f), asList(1f, 0f)));
+    NeuralNetwork fromList = new NeuralNetwork();
+    fromList.build(3, 1, 4, 2, false);
+    NeuralNetwork prefetched = new NeuralNetwork();
+    prefetched.build(3, 1, 4, 2, false);
+    prefetched.loadMemory(fromList);
+    TrainingSession listSession = new TrainingSession();
+    listSession.batchSize = 2;
+    listSession.tests.addAll(tests);
+    Set<Thread> readers = new HashSet<>();
+    TrainingSession prefetchSession = new TrainingSession();
+    prefetchSession.batchSize = 2;
+    prefetchSession.prefetchBatches = 1;
+    ListDataSource units = new ListDataSource(tests);
+    prefetchSession.source = new TrainingDataSource() {
+      @Override
+      public void rewind() {
+        readers.add(Thread.currentThread());
+        units.rewind();
+      }
+
+      @Override
+      public TestUnit next(TestUnit reuse) throws IOException {
+        return units.next(reuse);
+      }
+    };
+
+    // when
+    int listGenerations = fromList.evolute(3, listSession, 0.35f);
+    int prefetchGenerations = prefetched.evolute(3, prefetchSession, 0.35f);
+
+    // then
+    assertThat(prefetchGenerations, is(listGenerations));
+    assertThat(readers.size(), is(1));
+    assertThat(readers.contains(Thread.currentThread()), is(false));
+    assertThat(prefetchSession.totalError, is(listSession.totalError));
+    assertThat(Arrays.equals(prefetched.test(0.2f, 0.5f, 1f), fromList.test(0.2f, 0.5f, 1f)), is(true));
+
+    // when (rewound in the middle of a generation)
+    List<float[]> read = new ArrayList<>();
+    try (PrefetchingDataSource source = new PrefetchingDataSource(new ListDataSource(tests), 1, 1)) {
+      source.rewind();
+      source.next(null);
+      source.rewind();
+      for (List<TestUnit> chunk = source.nextChunk(); chunk != null; chunk = source.nextChunk()) {
+        read.add(chunk.get(0).inputValues.clone());
+      }
+    }
+
+    // then
+    assertThat(read.size(), is(3));
+    for (int u = 0; u < tests.size(); u++) {
+      assertThat(Arrays.equals(read.get(u), tests.get(u).inputValues), is(true));
+    }
+  }
+
+  /**
+   * Adam reaches a lower loss than plain gradient descent, and optimizers update off-heap parameters like heap ones
+   */
+  @Test
+  public void testOptimizers() {
+    // given
+    TrainingSession session = createSession();
+    float[] errors = new float[2];
+    IOptimizer[] optimizers = {IOptimizer.SGD, IOptimizer.ADAM};
+
+    // when
+    for (int o = 0; o < optimizers.length; o++) {
+      NeuralNetwork network = new NeuralNetwork();
+      network.setSeed(11);
+      network.build(3, 1, 8, 2, false);
+      network.setOptimizer(optimizers[o]);
+      network.evolute(30, session, 0.05f);
+      errors[o] = session.totalError;
+    }
+
+    // then
+    assertThat(errors[1] < errors[0], is(true));
+
+    // when (updated off-heap in chunks)
+    NeuralNetwork heap = new NeuralNetwork();
+    heap.build(3, 1, 600, 2, false);
+    NeuralNetwork offHeap = new NeuralNetwork();
+    offHeap.build(3, 1, 600, 2, false, ParameterStorage.OFF_HEAP);
+    offHeap.loadMemory(heap);
+    for (NeuralNetwork network : asList(heap, offHeap)) {
+      network.setOptimizer(IOptimizer.NESTEROV);
+      network.evolute(2, session, 0.05f);
+      network.setOptimizer(IOptimizer.ADAM);
+      network.evolute(2, session, 0.01f);
+    }
+
+    // then
+    assertThat(Arrays.equals(offHeap.test(0.2f, 0.5f, 1f), heap.test(0.2f, 0.5f, 1f)), is(true));
+  }
+
+  /**
+   * Step, exponential and cosine schedules lower the gradient by the generation, the plateau schedule halves it
+   * after a plateau of the loss down to its minimum, but never raises it. An evolution without improvement stops after its
+   * patience.
+   */
+  @Test
+  public void testSchedulesAndEarlyStopping() {
+    // given
+    ILearningRateSchedule step = ILearningRateSchedule.step(2, 0.5f);
+    ILearningRateSchedule cosine = ILearningRateSchedule.cosine(10, 0.1f);
+    PlateauSchedule plateau = new PlateauSchedule(0.5f, 2, 0, 0.1f);
+
+    // then
+    assertThat(step.getLearningGradient(1, 3, Float.NaN), is(0.5f));
+    assertThat(ILearningRateSchedule.exponential(0.5f).getLearningGradient(1, 2, Float.NaN), is(0.25f));
+    assertThat(cosine.getLearningGradient(1, 0, Float.NaN), is(1f));
+    assertThat(cosine.getLearningGradient(1, 20, Float.NaN), is(0.1f));
+    assertThat(plateau.getLearningGradient(1, 0, Float.NaN), is(1f));
+    assertThat(plateau.getLearningGradient(1, 1, 0.5f), is(1f));
+    assertThat(plateau.getLearningGradient(1, 2, 0.5f), is(1f));
+    assertThat(plateau.getLearningGradient(1, 3, 0.6f), is(0.5f));
+    assertThat(plateau.getLearningGradient(0.05f, 4, 0.6f), is(0.05f));
+
+    // given
+    TrainingSession session = createSession();
+    session.tests.add(newTestUnit(asList(0.5f, 0.5f, 0.5f), asList(1f, 0f)));
+    session.tests.add(newTestUnit(asList(0.5f, 0.5f, 0.5f), asList(0f, 1f)));
+    session.splitValidation(0.5f, 1);
+    session.patience = 3;
+    session.minImprovement = 1;
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(3, 1, 4, 2, false);
+
+    // when (no loss can improve by 1)
+    int generations = network.evolute(session, 0.15f);
+
+    // then
+    assertThat(session.tests.size(), is(2));
+    assertThat(session.validationTests.size(), is(2));
+    assertThat(Float.isNaN(session.validationError), is(false));
+    assertThat(generations, is(4));
+  }
+
+  /**
+   * A training resumed from the checkpoint of a stopped one continues its schedule, patience and shuffled order,
+   * so it ends like an uninterrupted training
+   */
+  @Test
+  public void testResumeFromCheckpoint() throws IOException {
+    // given
+    Path checkpoint = folder.getRoot().toPath().resolve("training.ecnn");
+    NeuralNetwork[] networks = new NeuralNetwork[3];
+    TrainingSession[] sessions = new TrainingSession[3];
+    for (int n = 0; n < networks.length; n++) {
+      networks[n] = new NeuralNetwork();
+      networks[n].setSeed(13);
+      networks[n].setOptimizer(IOptimizer.ADAM);
+      sessions[n] = createSession();
+      sessions[n].tests.add(newTestUnit(asList(0.5f, 0.5f, 0.5f), asList(1f, 0f)));
+      ListDataSource source = new ListDataSource(sessions[n].tests);
+      source.shuffle(5);
+      sessions[n].source = source;
+      sessions[n].checkpointFile = n > 0 ? checkpoint : null;
+      // no loss improves by 1: the gradient is halved each generation after the first, and patience stops after 5
+      sessions[n].learningRateSchedule = new PlateauSchedule(0.5f, 1, 1, 0.001f);
+      sessions[n].patience = 4;
+      sessions[n].minImprovement = 1;
+    }
+    networks[0].build(3, 1, 4, 2, false);
+    networks[1].build(3, 1, 4, 2, false);
+
+    // when (the second network stops after 3 of 5 generations, the third one resumes its training)
+    boolean resumedWithoutCheckpoint = networks[2].resume(sessions[2]);
+    networks[0].evolute(10, sessions[0], 0.05f);
+    networks[1].evolute(2, sessions[1], 0.05f);
+    boolean resumed = networks[2].resume(sessions[2]);
+    int resumedGenerations = networks[2].evolute(10, sessions[2], 0.05f);
+
+    // then
+    assertThat(resumedWithoutCheckpoint, is(false));
+    assertThat(resumed, is(true));
+    assertThat(networks[0].getGenerations(), is(5L));
+    assertThat(resumedGenerations, is(2));
+    assertThat(networks[2].getGenerations(), is(5L));
+    assertThat(Arrays.equals(networks[2].test(0.2f, 0.5f, 1f), networks[0].test(0.2f, 0.5f, 1f)), is(true));
+  }
+
+  /**
+   * A checkpoint, which cannot be written, fails the evolution instead of letting it wait for the checkpoint
+   */
+  @Test
+  public void testFailingCheckpoint() throws IOException {
+    // given
+    TrainingSession session = createSession();
+    session.checkpointFile = folder.newFolder("checkpoint.ecnn").toPath();
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(3, 1, 4, 2, false);
+
+    // when
+    RuntimeException failure = null;
+    try {
+      network.evolute(3, session, 0.05f);
+    } catch (RuntimeException ex) {
+      failure = ex;
+    }
+
+    // then
+    assertThat(failure, is(notNullValue()));
+    assertThat(Files.isDirectory(session.checkpointFile), is(true));
+
+    // when (an unchecked exception on the writing thread)
+    EvolutionState broken = new EvolutionState();
+    broken.scheduleState = null;
+    Path file = folder.getRoot().toPath().resolve("broken.ecnn");
+    RuntimeException unchecked = null;
+    CheckpointWriter writer = new CheckpointWriter();
+    writer.write(network, -1, broken, file);
+    try {
+      writer.close();
+    } catch (RuntimeException ex) {
+      unchecked = ex;
+    }
+
+    // then
+    assertThat(unchecked, is(instanceOf(NullPointerException.class)));
+    assertThat(Files.exists(file), is(false));
+  }
+
+  /**
+   * Int8 and float16 networks test close to the float network, agree on its classes and need less memory. Saved
+   * and loaded again, they are the same to the byte.
+   */
+  @Test
+  public void testQuantizedNetwork() throws IOException {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.setName("quantized");
+    network.setSeed(7);
+    network.build(3, 2, 16, 2, true);
+    TrainingSession session = createSession();
+    session.tests.add(newTestUnit(asList(0.5f, 0.5f, 0.5f), asList(1f, 0f)));
+    network.evolute(200, session, 0.1f);
+    float[] inputs = {0.2f, 0.5f, 1f};
+    float[] expected = network.test(inputs);
+
+    for (Quantization quantization : Quantization.values()) {
+      // when
+      QuantizedNetwork quantized = network.quantize(quantization);
+      Path file = folder.newFile(quantization + ".ecnq").toPath();
+      quantized.saveToFile(file);
+      QuantizedNetwork loaded = QuantizedNetwork.loadFromFile(file);
+      Path saved = folder.newFile(quantization + "-saved.ecnq").toPath();
+      loaded.saveToFile(saved);
+      QuantizationReport report = QuantizationReport.compare(network, quantized, session);
+
+      // then
+      float[] actual = quantized.test(inputs);
+      for (int i = 0; i < expected.length; i++) {
+        assertThat((double) actual[i], closeTo(expected[i], 0.02));
+      }
+      assertThat(Arrays.equals(loaded.test(inputs), actual), is(true));
+      assertThat(loaded.getName(), is("quantized"));
+      assertThat(loaded.getQuantization(), is(quantization));
+      assertThat(loaded.getGenerations(), is(network.getGenerations()));
+      assertThat(Arrays.equals(Files.readAllBytes(saved), Files.readAllBytes(file)), is(true));
+      assertThat(report.units, is(session.tests.size()));
+      assertThat(report.agreement, is(1f));
+      // biases stay floats, so the small network is not compressed 2 or 4 times
+      assertThat(report.getCompression() > (quantization == Quantization.FLOAT16 ? 1.8f : 2.4f), is(true));
+    }
+  }
+
+  /**
+   * An off-heap network trains exactly like a network on the heap. Loaded off-heap from a file, it maps the file
+   * privately, so training does not change the file.
+   */
+  @Test
+  public void testOffHeapStorage() throws IOException {
+    // given
+    NeuralNetwork heap = new NeuralNetwork();
+    heap.build(3, 2, 4, 2, false);
+    NeuralNetwork offHeap = new NeuralNetwork();
+    offHeap.build(3, 2, 4, 2, false, ParameterStorage.OFF_HEAP);
+    offHeap.loadMemory(heap);
+    TrainingSession session = createSession();
+    session.batchSize = 2;
+    float[] inputs = {0.2f, 0.5f, 1f};
+
+    // when
+    heap.train(session, 0.35f);
+    offHeap.train(session, 0.35f);
+
+    // then
+    assertThat(Arrays.equals(offHeap.test(inputs), heap.test(inputs)), is(true));
+    assertThat(Arrays.equals(offHeap.compile().test(inputs), heap.test(inputs)), is(true));
+
+    // when
+    Path file = folder.newFile("offheap.ecnn").toPath();
+    heap.saveToFile(file);
+    NeuralNetwork mapped = new NeuralNetwork();
+    mapped.loadFromFile(file, ParameterStorage.OFF_HEAP);
+    float[] loaded = mapped.test(inputs);
+    mapped.train(session, 0.35f);
+    NeuralNetwork reloaded = new NeuralNetwork();
+    reloaded.loadFromFile(file);
+
+    // then
+    assertThat(mapped.getStorage(), is(ParameterStorage.OFF_HEAP));
+    assertThat(Arrays.equals(loaded, heap.test(inputs)), is(true));
+    assertThat(Arrays.equals(mapped.test(inputs), loaded), is(false));
+    assertThat(Arrays.equals(reloaded.test(inputs), loaded), is(true));
+  }
+
+  /**
+   * Tests, how to stream json of a network. The json must be the same as the json of {@link MemoryData}
+   */
+  @Test
+  public void testJsonStream() {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.setName("stream");
+    network.build(3, 2, 4, 2, false);
+    network.train(createSession(), 0.35f);
+
+    // when
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    network.saveToJson(out);
+    NeuralNetwork loaded = new NeuralNetwork();
+    loaded.loadMemoryDataFromJson(new ByteArrayInputStream(out.toByteArray()));
+
+    // then
+    assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8), is(equalTo(network.saveToJson())));
+    assertThat(loaded.saveToJson(), is(equalTo(network.saveToJson())));
+    float[] inputs = {0.2f, 0.5f, 1f};
+    assertThat(Arrays.equals(loaded.test(inputs), network.test(inputs)), is(true));
+  }
+
+  /**
+   * Tests, that memory data restores weights and biases and a network of the same shape is not rebuilt,
+   * but only gets its weights and biases replaced
+   */
+  @Test
+  public void testLoadMemorySwapsWeights() {
+    // given
+    NeuralNetwork trained = new NeuralNetwork();
+    trained.build(3, 2, 4, 2, false);
+    trained.train(createSession(), 0.35f);
+    NeuralNetwork running = new NeuralNetwork();
+    running.build(3, 2, 4, 2, false);
+    Layer hiddenLayer = running.getLayer(1);
+    NeuralNetwork copy = new NeuralNetwork();
+    copy.build(3, 2, 4, 2, false);
+
+    // when
+    running.loadMemory(trained.readMemory());
+    copy.loadMemory(trained);
+
+    // then
+    assertThat(running.getLayer(1), is(sameInstance(hiddenLayer)));
+    assertThat(Layer.getNeurons(hiddenLayer).get(0).getInputBindings().size(), is(equalTo(3)));
+    float[] inputs = {0.2f, 0.5f, 1f};
+    assertThat(Arrays.equals(running.test(inputs), trained.test(inputs)), is(true));
+    assertThat(Arrays.equals(copy.test(inputs), trained.test(inputs)), is(true));
+    assertThat(running.getGenerations(), is(equalTo(1L)));
+  }
+
+  /**
+   * Tests, that a training listener receives each batch and the generation with the mean loss of its test units
+   */
+  @Test
+  public void testTrainingListener() {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(3, 1, 4, 2, false);
+    TrainingSession session = createSession();
+    session.tests.addAll(createSession().tests);
+    session.batchSize = 3;
+
+    List<Float> batchLosses = new ArrayList<>();
+    List<Integer> batchUnits = new ArrayList<>();
+    TrainingProgress[] generation = new TrainingProgress[1];
+    session.listener = new ITrainingListener() {
+      @Override
+      public void onBatchDone(TrainingProgress progress) {
+        batchLosses.add(progress.batchLoss);
+        batchUnits.add(progress.batchUnits);
+      }
+
+      @Override
+      public void onGenerationDone(TrainingProgress progress) {
+        generation[0] = progress;
+      }
+    };
+
+    // when
+    network.train(session, 0.35f);
+
+    // then
+    assertThat(batchUnits, is(equalTo(asList(3, 1))));
+    assertThat(generation[0].generation, is(equalTo(1L)));
+    assertThat(generation[0].units, is(equalTo(4)));
+    assertThat((double) generation[0].loss,
+      is(closeTo((batchLosses.get(0) * 3 + batchLosses.get(1)) / 4, 1e-6)));
+    assertThat(generation[0].elapsedNanos >= generation[0].batchNanos, is(true));
+  }
+
+  /**
+   * The total error of a session is the mean squared error over every output neuron and every test unit, computed
+   * before the weights of the unit are adjusted
+   */
+  @Test
+  public void testTotalErrorIsMeanOfAllUnits() {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(3, 1, 4, 2, false);
+    TrainingSession session = createSession();
+    session.batchSize = 2;
+
+    double expected = 0;
+    for (TestUnit unit : session.tests) {
+      float[] outputs = network.test(unit.inputValues);
+      for (int i = 0; i < outputs.length; i++) {
+        expected += Math.pow(unit.desiredValues[i] - outputs[i], 2) / outputs.length / session.tests.size();
+      }
+    }
+
+    // when
+    network.train(session, 0.35f);
+
+    // then
+    assertThat((double) session.totalError, is(closeTo(expected, 1e-6)));
+    assertThat(network.getTotalError(), is(equalTo(session.totalError)));
+  }
+
+  /**
+   * Tests, that a batch of rows gives the same outputs as testing each row on its own, also for the rows left over
+   * by the blocks of four rows and for a softmax output layer
+   */
+  @Test
+  public void testBatchEqualsSingleTests() {
+    for (boolean softmax : asList(false, true)) {
+      // given
+      NeuralNetwork network = new NeuralNetwork();
+      network.build(3, 2, 5, 4, softmax);
+      float[][] inputs = new float[7][];
+      for (int r = 0; r < inputs.length; r++) {
+        inputs[r] = new float[]{r / 7f, 1 - r / 7f, (r % 3) / 2f};
+      }
+
+      // when
+      float[][] outputs = network.testBatch(inputs);
+
+      // then
+      for (int r = 0; r < inputs.length; r++) {
+        assertThat(Arrays.equals(outputs[r], network.test(inputs[r])), is(true));
+      }
+    }
+  }
+
+  /**
+   * Tests, that a compiled network predicts the same as its network, also from concurrent threads, and that it keeps
+   * its weights when the network is trained afterwards
+   */
+  @Test
+  public void testCompiledNetwork() throws Exception {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(3, 2, 5, 2, true);
+    float[] inputs = {0.2f, 0.4f, 0.6f};
+    float[] expected = network.test(inputs);
+
+    // when
+    CompiledNetwork compiled = network.compile();
+    network.train(createSession(), 0.35f);
+
+    // then
+    assertThat(Arrays.equals(compiled.test(inputs), expected), is(true));
+    assertThat(Arrays.equals(compiled.test(inputs), network.test(inputs)), is(false));
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(executor.submit(() -> {
+          float[] outputs = new float[2];
+          for (int i = 0; i < 1000; i++) {
+            if (!Arrays.equals(compiled.test(inputs, outputs), expected)) {
+              return false;
+            }
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertThat(result.get(), is(true));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static TrainingSession createSession() {
+    TrainingSession session = new TrainingSession();
+    session.tests.add(newTestUnit(asList(0f, 0.5f, 1f), asList(1f, 0f)));
+    session.tests.add(newTestUnit(asList(1f, 0.5f, 0f), asList(0f, 1f)));
+    return session;
+  }
+
   @Test
   public void testSimpleBackpropagation() {
     // given
@@ -161,6 +872,101 @@ public class NeuralNetworkTest {
     assertThat(output, is(equalTo(activated)));
   }
 
+  /**
+   * Tests, that neurons and bindings are views on the flat layer storage, so changing a binding weight
+   * changes the matrix-vector product of the layer
+   */
+  @Test
+  public void bindingsAreViewsOnLayerWeights() {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(2, 1, 3, 2, false);
+    Layer inputLayer = network.getLayer(0);
+    Layer hiddenLayer = network.getLayer(1);
+
+    // when
+    Binding binding = Layer.getNeurons(hiddenLayer).get(1).getInputBindings().get(1);
+    binding.setWeight(0.25f);
+    network.test(1, 0.5f);
+
+    // then
+    assertThat(hiddenLayer.getWeight(1, 1), is(equalTo(0.25f)));
+    float sum = 0;
+    for (int i = 0; i < hiddenLayer.countInputs(); i++) {
+      sum += hiddenLayer.getWeight(1, i) * inputLayer.getOutput(i);
+    }
+    sum += hiddenLayer.getBias(1);
+    assertThat(hiddenLayer.getOutput(1), is(equalTo(IActivationFunction.SIGMOID.activate(sum))));
+    assertThat(Layer.getNeurons(hiddenLayer).get(1).getOutputValue(), is(equalTo(hiddenLayer.getOutput(1))));
+  }
+
+  /**
+   * Tests, that propagating into caller provided arrays does not allocate any object in steady state.
+   * <p>
+   * The allocated bytes are counted by the JVM per thread, so this test is skipped on JVMs without
+   * {@link com.sun.management.ThreadMXBean}
+   */
+  @Test
+  public void testIntoBuffersDoesNotAllocate() {
+    // given
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    long threadId = Thread.currentThread().getId();
+
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(64, 2, 32, 4, false);
+    float[] inputs = new float[64];
+    float[] outputs = new float[4];
+    Arrays.fill(inputs, 0.5f);
+    int calls = 20_000;
+    for (int i = 0; i < calls; i++) {
+      network.test(inputs, outputs);
+    }
+
+    // when
+    long before = allocations.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < calls; i++) {
+      network.test(inputs, outputs);
+    }
+    long after = allocations.getThreadAllocatedBytes(threadId);
+
+    // then
+    // only the measurement itself may allocate some bytes, not a single object per call
+    assertThat(after - before < calls, is(true));
+    assertThat(Arrays.equals(outputs, network.test(inputs)), is(true));
+  }
+
+  /**
+   * An off-heap network holds no object per weight on the heap, its bindings are created when they are read
+   */
+  @Test
+  public void testOffHeapNetworkKeepsHeapFlat() {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    long before = usedHeap();
+
+    // when (4 million weights, 16 MB off-heap)
+    network.build(1000, 1, 2000, 1000, false, ParameterStorage.OFF_HEAP);
+    long after = usedHeap();
+
+    // then
+    assertThat(after - before < 4_000_000, is(true));
+    Neuron neuron = Layer.getNeurons(network.getLayer(2)).get(7);
+    List<Binding> bindings = neuron.getInputBindings();
+    assertThat(bindings.size(), is(2000));
+    assertThat(bindings.get(5).getWeight(), is(network.getLayer(2).getWeight(7, 5)));
+    assertThat(bindings.get(5).isParentNeuron(Layer.getNeurons(network.getLayer(1)).get(5)), is(true));
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
   /**
    * A generation is the point from input values over propagation to gradient descent error correction
    * and weight adjustment
@@ -187,6 +993,170 @@ public class NeuralNetworkTest {
     assertThat(session.totalError, is(not(equalTo(old))));
   }
 
+  /**
+   * A mini-batch adjusts weights once by the average of its units deltas. Learning the same unit twice in one batch
+   * must be equal to learn it once.
+   */
+  @Test
+  public void testMiniBatchAveragesDeltas() {
+    // given
+    NeuralNetwork online = new NeuralNetwork();
+    online.build(2, 1, 3, 1, false);
+    NeuralNetwork batched = new NeuralNetwork();
+    batched.build(2, 1, 3, 1, false);
+    copyWeights(online, batched);
+
+    TestUnit unit = newTestUnit(asList(0f, 1f), singletonList(1f));
+    TrainingSession onlineSession = new TrainingSession();
+    onlineSession.tests.add(unit);
+    TrainingSession batchedSession = new TrainingSession();
+    batchedSession.tests.add(unit);
+    batchedSession.tests.add(unit);
+    batchedSession.batchSize = 2;
+
+    // when
+    online.train(onlineSession, 0.35f);
+    batched.train(batchedSession, 0.35f);
+
+    // then
+    assertThat(online.getLayer(2).getBias(0), is(not(equalTo(0f))));
+    for (int l = 1; l < 3; l++) {
+      Layer expected = online.getLayer(l);
+      Layer actual = batched.getLayer(l);
+      for (int n = 0; n < expected.countNeurons(); n++) {
+        assertThat((double) actual.getBias(n), is(closeTo(expected.getBias(n), 1e-6)));
+        for (int i = 0; i < expected.countInputs(); i++) {
+          assertThat((double) actual.getWeight(n, i), is(closeTo(expected.getWeight(n, i), 1e-6)));
+        }
+      }
+    }
+  }
+
+  /**
+   * A softmax output layer classifies the current input only. Large sums must not overflow and the output errors
+   * are the gradient of softmax and cross-entropy.
+   */
+  @Test
+  public void testSoftMaxOutputLayer() {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(2, 1, 3, 4, true);
+    NeuralNetwork fresh = new NeuralNetwork();
+    fresh.build(2, 1, 3, 4, true);
+    copyWeights(network, fresh);
+    Layer outputLayer = network.getLayer(2);
+
+    // when
+    network.test(1, 0);
+    float[] outputs = network.test(0, 1);
+    float[] freshOutputs = fresh.test(0, 1);
+
+    // then
+    assertThat(Arrays.equals(outputs, freshOutputs), is(true));
+    double total = 0;
+    for (float output : outputs) {
+      total += output;
+    }
+    assertThat(total, is(closeTo(1, 1e-6)));
+
+    // when
+    for (int n = 0; n < outputLayer.countNeurons(); n++) {
+      outputLayer.setBias(n, 1000 * n);
+    }
+    outputs = network.test(0, 1);
+    network.learn(newTestUnit(asList(0f, 1f), asList(0f, 1f, 0f, 0f)));
+
+    // then
+    assertThat(outputs[3], is(equalTo(1f)));
+    assertThat(outputs[0], is(equalTo(0f)));
+    assertThat(outputLayer.getError(1), is(equalTo(1f)));
+    assertThat(outputLayer.getError(3), is(equalTo(-1f)));
+  }
+
+  /**
+   * The hidden errors are calculated at once as transposed weight matrix product. They must be equal to the sum of
+   * the errors each child neuron passes back to a parent neuron.
+   */
+  @Test
+  public void testHiddenErrorsByTransposedWeights() {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(3, 2, 4, 2, false);
+    TestUnit unit = newTestUnit(asList(0f, 0.5f, 1f), asList(1f, 0f));
+
+    // when
+    network.learn(unit);
+
+    // then
+    for (int l = 1; l < 3; l++) {
+      Layer parentLayer = network.getLayer(l);
+      List<Neuron> childNeurons = Layer.getNeurons(network.getLayer(l + 1));
+      for (Neuron parentNeuron : Layer.getNeurons(parentLayer)) {
+        float expected = 0;
+        for (Neuron childNeuron : childNeurons) {
+          expected += childNeuron.calculateParentError(parentNeuron);
+        }
+        assertThat((double) parentNeuron.getError(), is(closeTo(expected, 1e-6)));
+      }
+    }
+  }
+
+  /**
+   * Training on multiple threads must be reproducible for a fixed number of threads and equal to a single threaded
+   * mini-batch, except of rounding by the order of summing up the deltas
+   */
+  @Test
+  public void testParallelTrainingIsDeterministic() {
+    // given
+    NeuralNetwork first = new NeuralNetwork();
+    first.build(2, 1, 5, 1, false);
+    NeuralNetwork second = new NeuralNetwork();
+    second.build(2, 1, 5, 1, false);
+    copyWeights(first, second);
+    NeuralNetwork sequential = new NeuralNetwork();
+    sequential.build(2, 1, 5, 1, false);
+    copyWeights(first, sequential);
+
+    TrainingSession parallelSession = createXorSmokeTestSession();
+    parallelSession.batchSize = 4;
+    parallelSession.threads = 3;
+    TrainingSession sequentialSession = createXorSmokeTestSession();
+    sequentialSession.batchSize = 4;
+
+    // when
+    first.evolute(5, parallelSession, 0.35f);
+    second.evolute(5, parallelSession, 0.35f);
+    sequential.evolute(5, sequentialSession, 0.35f);
+
+    // then
+    for (int l = 1; l < 3; l++) {
+      Layer expected = first.getLayer(l);
+      Layer actual = second.getLayer(l);
+      Layer single = sequential.getLayer(l);
+      for (int n = 0; n < expected.countNeurons(); n++) {
+        assertThat(actual.getBias(n), is(equalTo(expected.getBias(n))));
+        assertThat((double) single.getBias(n), is(closeTo(expected.getBias(n), 1e-5)));
+        for (int i = 0; i < expected.countInputs(); i++) {
+          assertThat(actual.getWeight(n, i), is(equalTo(expected.getWeight(n, i))));
+          assertThat((double) single.getWeight(n, i), is(closeTo(expected.getWeight(n, i), 1e-5)));
+        }
+      }
+    }
+  }
+
+  private static void copyWeights(NeuralNetwork from, NeuralNetwork to) {
+    for (int l = 1; l < 3; l++) {
+      Layer source = from.getLayer(l);
+      Layer target = to.getLayer(l);
+      for (int n = 0; n < source.countNeurons(); n++) {
+        target.setBias(n, source.getBias(n));
+        for (int i = 0; i < source.countInputs(); i++) {
+          target.setWeight(n, i, source.getWeight(n, i));
+        }
+      }
+    }
+  }
+
   /**
    * Train multiple times of generations to get a valid prediction
    */
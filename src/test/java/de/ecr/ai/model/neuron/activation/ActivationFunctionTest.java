@@ -0,0 +1,83 @@
+package de.ecr.ai.model.neuron.activation;
+
+import de.ecr.ai.model.Layer;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+
+/**
+ * @author Bjoern Frohberg
+ */
+public class ActivationFunctionTest {
+
+  private static final float[] SUMS = {-4f, -1.5f, -0.25f, 0f, 0.25f, 1.5f, 4f};
+
+  /**
+   * Activating a whole layer must be equal to activating each value on its own
+   */
+  @Test
+  public void testBulkEqualsSingle() {
+    for (IActivationFunction activation : new IActivationFunction[]{
+      IActivationFunction.SIGMOID, IActivationFunction.TANGENT_HYPERBOLIC}) {
+      // when
+      float[] outputs = new float[SUMS.length];
+      float[] derivatives = new float[SUMS.length];
+      activation.activate(SUMS, outputs, 1, SUMS.length);
+      activation.derive(outputs, derivatives, 1, SUMS.length);
+
+      // then
+      assertThat(outputs[0], is(equalTo(0f)));
+      for (int i = 1; i < SUMS.length; i++) {
+        assertThat(outputs[i], is(equalTo(activation.activate(SUMS[i]))));
+        assertThat(derivatives[i], is(equalTo(activation.derive(outputs[i]))));
+      }
+    }
+  }
+
+  /**
+   * The float kernels stay within their error bound of the double precision functions and reach their limits
+   */
+  @Test
+  public void testFloatPrecision() {
+    for (float sum = -20; sum <= 20; sum += 0.001f) {
+      assertThat((double) IActivationFunction.SIGMOID.activate(sum), is(closeTo(1 / (1 + Math.exp(-sum)), 2.5e-7)));
+      assertThat((double) IActivationFunction.TANGENT_HYPERBOLIC.activate(sum), is(closeTo(Math.tanh(sum), 3.5e-7)));
+    }
+    assertThat(IActivationFunction.SIGMOID.activate(-1e9f), is(equalTo(0f)));
+    assertThat(IActivationFunction.SIGMOID.activate(1e9f), is(equalTo(1f)));
+    assertThat(IActivationFunction.TANGENT_HYPERBOLIC.activate(-1e9f), is(equalTo(-1f)));
+    assertThat(IActivationFunction.TANGENT_HYPERBOLIC.activate(0), is(equalTo(0f)));
+  }
+
+  @Test
+  public void testTangentHyperbolicDerivative() {
+    for (float sum : SUMS) {
+      float output = IActivationFunction.TANGENT_HYPERBOLIC.activate(sum);
+      double expected = 1 / Math.pow(Math.cosh(sum), 2);
+      assertThat((double) IActivationFunction.TANGENT_HYPERBOLIC.derive(output), is(closeTo(expected, 1e-6)));
+    }
+  }
+
+  /**
+   * The softmax of a layer sums up to 1 and keeps the order of the sums
+   */
+  @Test
+  public void testSoftMaxBulk() {
+    // when
+    float[] outputs = new float[SUMS.length];
+    new SoftMaxActivation((Layer) null).activate(SUMS, outputs, 0, SUMS.length);
+
+    // then
+    double total = 0;
+    for (int i = 0; i < SUMS.length; i++) {
+      total += outputs[i];
+      if (i > 0) {
+        assertThat(outputs[i] > outputs[i - 1], is(true));
+      }
+    }
+    assertThat(total, is(closeTo(1, 1e-6)));
+  }
+}
@@ -0,0 +1,195 @@
+package de.ecr.ai.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ecr.ai.model.CompiledNetwork;
+import de.ecr.ai.model.NeuralNetwork;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * @author Bjoern Frohberg
+ */
+public class ScoringServerTest {
+
+  /**
+   * Concurrent requests on localhost are answered like a compiled network tests them and share batches
+   */
+  @Test
+  public void testConcurrentRequestsAreBatched() throws Exception {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(3, 1, 4, 2, false);
+    CompiledNetwork compiled = network.compile();
+    ScoringSettings settings = new ScoringSettings();
+    settings.port = 0;
+    settings.maxBatchSize = 8;
+    settings.maxDelayMicros = 200_000;
+
+    ExecutorService clients = Executors.newFixedThreadPool(8);
+    try (ScoringServer server = new ScoringServer(compiled, settings)) {
+      String url = "http://localhost:" + server.getPort();
+
+      // when
+      List<Future<JsonNode>> answers = new ArrayList<>();
+      for (int r = 0; r < 8; r++) {
+        String body = "[" + r / 8f + ", 0.5, 1]";
+        answers.add(clients.submit(() -> new ObjectMapper().readTree(post(url + "/predict", "application/json",
+          body.getBytes(StandardCharsets.UTF_8)))));
+      }
+
+      // then
+      for (int r = 0; r < 8; r++) {
+        JsonNode answer = answers.get(r).get();
+        float[] expected = compiled.test(r / 8f, 0.5f, 1);
+        assertThat(answer.size(), is(equalTo(2)));
+        for (int o = 0; o < expected.length; o++) {
+          assertThat(answer.get(o).asDouble(), is(closeTo(expected[o], 1e-6)));
+        }
+      }
+      assertThat(server.getBatchSizes().getCount(), is(lessThan(8L)));
+
+      JsonNode metrics = new ObjectMapper().readTree(get(url + "/metrics"));
+      assertThat(metrics.get("requests").asLong(), is(equalTo(8L)));
+      assertThat(metrics.get("latencyMicros").has("p99"), is(true));
+    } finally {
+      clients.shutdown();
+    }
+  }
+
+  /**
+   * Rows of little-endian floats are answered as rows of little-endian floats
+   */
+  @Test
+  public void testBinaryRows() throws Exception {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(3, 1, 4, 2, true);
+    CompiledNetwork compiled = network.compile();
+    ScoringSettings settings = new ScoringSettings();
+    settings.port = 0;
+    float[] inputs = {0, 0.5f, 1, 1, 0.5f, 0};
+
+    try (ScoringServer server = new ScoringServer(compiled, settings)) {
+      ByteBuffer body = ByteBuffer.allocate(inputs.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+      body.asFloatBuffer().put(inputs);
+
+      // when
+      byte[] answer = post("http://localhost:" + server.getPort() + "/predict", "application/octet-stream",
+        body.array());
+
+      // then
+      float[] outputs = new float[4];
+      ByteBuffer.wrap(answer).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(outputs);
+      assertThat(outputs, is(equalTo(compiled.testBatch(inputs, 2))));
+    }
+  }
+
+  /**
+   * A body larger than the limit is answered with 413, whether its length is announced or streamed in chunks
+   */
+  @Test
+  public void testRequestBodyIsLimited() throws Exception {
+    // given
+    NeuralNetwork network = new NeuralNetwork();
+    network.build(3, 1, 4, 2, false);
+    ScoringSettings settings = new ScoringSettings();
+    settings.port = 0;
+    settings.maxRequestBytes = 64;
+    byte[] body = new byte[12 * 16];
+
+    try (ScoringServer server = new ScoringServer(network, settings)) {
+      String url = "http://localhost:" + server.getPort() + "/predict";
+
+      // when
+      int announced = postStatus(url, body, false);
+      int chunked = postStatus(url, body, true);
+      int small = postStatus(url, new byte[12], true);
+
+      // then
+      assertThat(announced, is(equalTo(413)));
+      assertThat(chunked, is(equalTo(413)));
+      assertThat(small, is(equalTo(200)));
+    }
+  }
+
+  @Test
+  public void testHistogramPercentiles() {
+    Histogram histogram = new Histogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertThat(histogram.getPercentile(0.1), is(equalTo(10L)));
+    long p99 = histogram.getPercentile(0.99);
+    assertThat(p99 >= 99 && p99 <= 99 * 1.125, is(true));
+    assertThat(histogram.getMean(), is(closeTo(50.5, 1e-9)));
+    for (long value = 0; value < 100_000; value += 7) {
+      int index = Histogram.index(value);
+      assertThat(Histogram.lowerBound(index) <= value && value <= Histogram.upperBound(index), is(true));
+    }
+  }
+
+  private static byte[] post(String url, String contentType, byte[] body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type", contentType);
+    connection.setDoOutput(true);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body);
+    }
+    assertThat(connection.getResponseCode(), is(equalTo(200)));
+    return read(connection.getInputStream());
+  }
+
+  private static int postStatus(String url, byte[] body, boolean chunked) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type", "application/octet-stream");
+    connection.setDoOutput(true);
+    if (chunked) {
+      connection.setChunkedStreamingMode(16);
+    }
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body);
+    }
+    return connection.getResponseCode();
+  }
+
+  private static byte[] get(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    assertThat(connection.getResponseCode(), is(equalTo(200)));
+    return read(connection.getInputStream());
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    try (InputStream stream = in) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = stream.read(buffer)) >= 0) {
+        bytes.write(buffer, 0, read);
+      }
+      return bytes.toByteArray();
+    }
+  }
+}